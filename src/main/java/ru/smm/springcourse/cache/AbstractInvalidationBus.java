@@ -0,0 +1,154 @@
+package ru.smm.springcourse.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Общая часть всех реализаций шины: привязка к транзакциям, накопление и схлопывание событий.
+// Подписчики своего узла узнают об изменении сразу после commit, в том же потоке - следующий запрос
+// этого же пользователя уже не увидит старых данных. Другим узлам события уходят пачками
+// раз в flushIntervalMillis (или сразу, если пачка набралась); неотправленная пачка уходит со следующей
+public abstract class AbstractInvalidationBus implements InvalidationBus {
+
+    protected final Log log = LogFactory.getLog(getClass());
+
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Object lock = new Object();
+    private Set<EntityChangedEvent> pending = new LinkedHashSet<>();
+
+    private final int maxBatchSize;
+    private final ScheduledExecutorService flusher;
+
+    protected AbstractInvalidationBus(long flushIntervalMillis, int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "invalidation-bus-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly,
+                flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void publish(EntityChangedEvent.Type type, int id) {
+        EntityChangedEvent event = new EntityChangedEvent(type, id);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+            currentTransactionEvents().add(event);
+        else
+            committed(Collections.singleton(event));
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void shutdown() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    // Отправить пачку другим узлам. Локальные подписчики к этому моменту уже уведомлены.
+    // Если бросит исключение - пачка будет отправлена еще раз со следующей
+    protected abstract void send(Set<EntityChangedEvent> batch);
+
+    // Раздать события подписчикам этого узла (и своим, и пришедшим с других узлов)
+    protected void deliver(Set<EntityChangedEvent> events) {
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.onInvalidate(events);
+            } catch (RuntimeException e) {
+                log.warn("Invalidation listener " + listener + " failed", e);
+            }
+        }
+    }
+
+    protected void deliverReset() {
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.onReset();
+            } catch (RuntimeException e) {
+                log.warn("Invalidation listener " + listener + " failed on reset", e);
+            }
+        }
+    }
+
+    // Изменения сохранены: свои подписчики узнают сразу, другие узлы - со следующей пачкой
+    private void committed(Set<EntityChangedEvent> events) {
+        deliver(Collections.unmodifiableSet(events));
+        enqueue(events);
+    }
+
+    private void enqueue(Collection<EntityChangedEvent> events) {
+        boolean batchIsFull;
+
+        synchronized (lock) {
+            pending.addAll(events);
+            batchIsFull = pending.size() >= maxBatchSize;
+        }
+
+        if (batchIsFull && !flusher.isShutdown())
+            flusher.execute(this::flushQuietly);
+    }
+
+    private void flushQuietly() {
+        Set<EntityChangedEvent> batch;
+
+        synchronized (lock) {
+            if (pending.isEmpty())
+                return;
+            batch = pending;
+            pending = new LinkedHashSet<>();
+        }
+
+        try {
+            send(batch);
+        } catch (RuntimeException e) {
+            // Возвращаем пачку в начало очереди: иначе другие узлы так и не узнают об этих изменениях.
+            // Повторы схлопнутся с новыми событиями, так что очередь не больше числа изменившихся сущностей
+            log.error("Failed to send " + batch.size() + " invalidation events, will retry with the next batch", e);
+            synchronized (lock) {
+                batch.addAll(pending);
+                pending = batch;
+            }
+        }
+    }
+
+    // События текущей транзакции копятся в ее собственной синхронизации и уходят в очередь после commit
+    private Set<EntityChangedEvent> currentTransactionEvents() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof AfterCommitPublisher
+                    && ((AfterCommitPublisher) synchronization).owner() == this)
+                return ((AfterCommitPublisher) synchronization).events;
+        }
+
+        AfterCommitPublisher publisher = new AfterCommitPublisher();
+        TransactionSynchronizationManager.registerSynchronization(publisher);
+        return publisher.events;
+    }
+
+    private class AfterCommitPublisher implements TransactionSynchronization {
+
+        private final Set<EntityChangedEvent> events = new LinkedHashSet<>();
+
+        private AbstractInvalidationBus owner() {
+            return AbstractInvalidationBus.this;
+        }
+
+        @Override
+        public void afterCommit() {
+            committed(events);
+        }
+    }
+}
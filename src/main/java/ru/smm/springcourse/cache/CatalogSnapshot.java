@@ -0,0 +1,484 @@
+package ru.smm.springcourse.cache;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import ru.smm.springcourse.models.Book;
+import ru.smm.springcourse.models.Person;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Компактная копия каталога в памяти (по колонкам, а не объектами Book).
+// Отвечает на сортировку по году, фильтры по годам и "только свободные" и подсчеты без обращения к БД.
+//
+// Книга занимает слот - одну позицию во всех массивах, слоты упорядочены по book_id.
+// На слот уходит 5 int'ов, одна ссылка (4 байта при сжатых ссылках) и 4 байта в порядке byYear: 28 байт.
+// Массивы растут в 1.5 раза, поэтому сразу после роста занято до 42 байт на книгу; так же растет и куча
+// названий в UTF-8. Пока порядок byYear пересчитывается, нужно еще 8 байт на книгу под временный long[].
+// Авторы хранятся один раз на каждое уникальное имя. Итого на 1 млн книг с названиями в среднем
+// по 30 символов кириллицей: 28-42 МБ массивов + 60-90 МБ названий + авторы.
+// Замер в CatalogSnapshotFootprintBenchmark (mvn test -Pbenchmarks; 1 млн книг, названия по 30 символов
+// кириллицей, 1000 авторов, JDK 17, сжатые ссылки): 108.9 МБ в куче, формула EstimatedBytes дает столько же.
+// Сколько занимает снимок на проде - атрибут EstimatedBytes по JMX.
+//
+// Загружается целиком при первом обращении, дальше обновляется по событиям шины инвалидации:
+// перечитываются только изменившиеся книги.
+@ManagedResource
+public class CatalogSnapshot implements InvalidationListener {
+
+    private static final int NO_OWNER = 0; // user_id генерируется начиная с 1
+
+    private final boolean enabled;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private boolean loaded;
+    private int size; // занятые слоты, вместе с удаленными
+    private int deletedCount;
+
+    private int[] ids = new int[0];
+    private int[] years = new int[0];
+    private int[] ownerIds = new int[0];
+    private String[] authors = new String[0];
+    private int[] titleStarts = new int[0];
+    private int[] titleLengths = new int[0];
+    private final BitSet deleted = new BitSet();
+
+    // Все названия подряд в UTF-8. При изменении название дописывается в конец, старое становится мусором
+    private byte[] titleHeap = new byte[0];
+    private int titleHeapSize;
+    private int garbageTitleBytes; // байты старых названий и названий удаленных книг
+
+    private final Map<String, String> authorPool = new HashMap<>();
+
+    // Слоты, отсортированные по году. Пересчитывается лениво после изменений
+    private volatile int[] byYear;
+
+    public CatalogSnapshot(DataSource dataSource, boolean enabled) {
+        this.enabled = enabled;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(1000);
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    // Для тестов: пустой снимок без БД, изменения вносятся через put()/remove()
+    CatalogSnapshot() {
+        this.enabled = true;
+        this.jdbcTemplate = null;
+        this.namedJdbcTemplate = null;
+        this.loaded = true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Все книги, отсортированные по году (при равном годе - по id)
+    public List<Book> sortedByYear() {
+        return filter(Integer.MIN_VALUE, Integer.MAX_VALUE, false, true, 0, Integer.MAX_VALUE);
+    }
+
+    // Книги с годом в [yearFrom, yearTo], при availableOnly - только те, что никому не выданы.
+    // offset/limit - для постраничного вывода
+    public List<Book> filter(int yearFrom, int yearTo, boolean availableOnly, boolean sortByYear,
+                             int offset, int limit) {
+        readLock();
+        try {
+            List<Book> result = new ArrayList<>();
+            int skipped = 0;
+
+            if (sortByYear) {
+                int[] order = yearOrder();
+                for (int i = lowerBound(order, yearFrom); i < order.length && result.size() < limit; i++) {
+                    int slot = order[i];
+                    if (years[slot] > yearTo)
+                        break;
+                    if ((!availableOnly || ownerIds[slot] == NO_OWNER) && skipped++ >= offset)
+                        result.add(toBook(slot));
+                }
+            } else {
+                for (int slot = 0; slot < size && result.size() < limit; slot++) {
+                    if (matches(slot, yearFrom, yearTo, availableOnly) && skipped++ >= offset)
+                        result.add(toBook(slot));
+                }
+            }
+
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int count(int yearFrom, int yearTo, boolean availableOnly) {
+        readLock();
+        try {
+            int[] order = yearOrder();
+            int from = lowerBound(order, yearFrom);
+            int to = yearTo == Integer.MAX_VALUE ? order.length : lowerBound(order, yearTo + 1);
+
+            if (!availableOnly)
+                return Math.max(0, to - from);
+
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (ownerIds[order[i]] == NO_OWNER)
+                    count++;
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onInvalidate(Set<EntityChangedEvent> events) {
+        lock.writeLock().lock();
+        try {
+            // Еще не загружен - загрузится сразу свежим
+            if (!loaded)
+                return;
+
+            Set<Integer> bookIds = new HashSet<>();
+            Set<Integer> personIds = new HashSet<>();
+            for (EntityChangedEvent event : events) {
+                if (event.getType() == EntityChangedEvent.Type.BOOK)
+                    bookIds.add(event.getId());
+                else if (event.getType() == EntityChangedEvent.Type.PERSON_DELETED)
+                    personIds.add(event.getId());
+                // остальные изменения людей снимку не важны: из владельца в нем хранится только id
+            }
+
+            // Удаление человека освобождает его книги - их тоже перечитываем
+            if (!personIds.isEmpty()) {
+                for (int slot = 0; slot < size; slot++) {
+                    if (!deleted.get(slot) && personIds.contains(ownerIds[slot]))
+                        bookIds.add(ids[slot]);
+                }
+            }
+
+            if (!bookIds.isEmpty()) {
+                try {
+                    reload(bookIds);
+                } catch (RuntimeException e) {
+                    // Событие уже не повторится, а эти книги в снимке устарели - при следующем чтении перечитаем все
+                    loaded = false;
+                    throw e;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Для тестов: то же, что делает reload() с одной прочитанной из БД строкой
+    void put(int id, String title, String author, int year, int ownerId) {
+        lock.writeLock().lock();
+        try {
+            fill(slotForUpdate(id), id, title, author, year, ownerId);
+            afterUpdate();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Для тестов: то же, что делает reload() с книгой, которой больше нет в БД
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            markDeleted(id);
+            afterUpdate();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Для тестов: занятые слоты вместе с удаленными - видно, прошло ли сжатие
+    int usedSlots() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @ManagedAttribute(description = "Books in the snapshot")
+    public int getBooks() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @ManagedAttribute(description = "Approximate heap used by the snapshot, bytes")
+    public long getEstimatedBytes() {
+        lock.readLock().lock();
+        try {
+            // 16 байт - заголовок массива, ссылки считаем по 4 байта (сжатые указатели)
+            long bytes = 6 * (16L + 4L * ids.length) + 16L + titleHeap.length + deleted.size() / 8;
+            // автор: String с массивом символов (~40 байт + 2 на символ) и узел HashMap с ячейкой таблицы (~40 байт)
+            for (String author : authorPool.keySet())
+                bytes += 80 + 2L * author.length();
+            if (byYear != null)
+                bytes += 16L + 4L * byYear.length;
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Берет read lock, а если снимок еще не загружен - сначала загружает его
+    private void readLock() {
+        lock.readLock().lock();
+        if (loaded)
+            return;
+
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            if (!loaded)
+                loadAll();
+            lock.readLock().lock(); // понижаем write lock до read lock
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void loadAll() {
+        size = 0;
+        deletedCount = 0;
+        deleted.clear();
+        titleHeapSize = 0;
+        garbageTitleBytes = 0;
+        authorPool.clear();
+        byYear = null;
+
+        jdbcTemplate.query("SELECT book_id, title, author, year, user_id FROM Book ORDER BY book_id",
+                (ResultSet rs) -> {
+                    ensureCapacity(size + 1);
+                    fill(size++, rs);
+                });
+
+        loaded = true;
+    }
+
+    private void reload(Set<Integer> bookIds) {
+        Set<Integer> missing = new HashSet<>(bookIds);
+
+        namedJdbcTemplate.query("SELECT book_id, title, author, year, user_id FROM Book WHERE book_id IN (:ids)",
+                new MapSqlParameterSource("ids", bookIds),
+                (ResultSet rs) -> {
+                    int id = rs.getInt("book_id");
+                    missing.remove(id);
+                    fill(slotForUpdate(id), rs);
+                });
+
+        // Книг, которые не нашлись в БД, больше нет
+        for (int id : missing)
+            markDeleted(id);
+
+        afterUpdate();
+    }
+
+    private void markDeleted(int id) {
+        int slot = Arrays.binarySearch(ids, 0, size, id);
+        if (slot >= 0 && !deleted.get(slot)) {
+            deleted.set(slot);
+            deletedCount++;
+            garbageTitleBytes += titleLengths[slot];
+        }
+    }
+
+    private void afterUpdate() {
+        byYear = null;
+
+        if (deletedCount > size / 4 || garbageTitleBytes > titleHeapSize - garbageTitleBytes)
+            compact();
+    }
+
+    private void fill(int slot, ResultSet rs) throws SQLException {
+        // NULL в user_id вернется как 0, т.е. NO_OWNER
+        fill(slot, rs.getInt("book_id"), rs.getString("title"), rs.getString("author"),
+                rs.getInt("year"), rs.getInt("user_id"));
+    }
+
+    private void fill(int slot, int id, String titleText, String author, int year, int ownerId) {
+        ids[slot] = id;
+        years[slot] = year;
+        ownerIds[slot] = ownerId;
+        authors[slot] = authorPool.computeIfAbsent(author, name -> name);
+
+        byte[] title = titleText.getBytes(StandardCharsets.UTF_8);
+        if (titleHeapSize + title.length > titleHeap.length)
+            titleHeap = Arrays.copyOf(titleHeap, Math.max(titleHeap.length * 3 / 2, titleHeapSize + title.length));
+        System.arraycopy(title, 0, titleHeap, titleHeapSize, title.length);
+        titleStarts[slot] = titleHeapSize;
+        titleLengths[slot] = title.length;
+        titleHeapSize += title.length;
+    }
+
+    // Слот книги с таким id: существующий или новый (новые id почти всегда больше всех имеющихся)
+    private int slotForUpdate(int id) {
+        int slot = Arrays.binarySearch(ids, 0, size, id);
+
+        if (slot >= 0) {
+            if (deleted.get(slot)) {
+                deleted.clear(slot);
+                deletedCount--;
+            } else {
+                garbageTitleBytes += titleLengths[slot]; // старое название перезапишется новым
+            }
+            return slot;
+        }
+
+        int insertAt = -slot - 1;
+        ensureCapacity(size + 1);
+
+        if (insertAt < size) {
+            int tail = size - insertAt;
+            System.arraycopy(ids, insertAt, ids, insertAt + 1, tail);
+            System.arraycopy(years, insertAt, years, insertAt + 1, tail);
+            System.arraycopy(ownerIds, insertAt, ownerIds, insertAt + 1, tail);
+            System.arraycopy(authors, insertAt, authors, insertAt + 1, tail);
+            System.arraycopy(titleStarts, insertAt, titleStarts, insertAt + 1, tail);
+            System.arraycopy(titleLengths, insertAt, titleLengths, insertAt + 1, tail);
+            for (int i = size - 1; i >= insertAt; i--)
+                deleted.set(i + 1, deleted.get(i));
+            deleted.clear(insertAt);
+        }
+
+        size++;
+        return insertAt;
+    }
+
+    // Выкидываем удаленные слоты и мусор из кучи названий
+    private void compact() {
+        byte[] heap = new byte[titleHeapSize - garbageTitleBytes];
+        int heapSize = 0;
+        int live = 0;
+
+        for (int slot = 0; slot < size; slot++) {
+            if (deleted.get(slot))
+                continue;
+
+            System.arraycopy(titleHeap, titleStarts[slot], heap, heapSize, titleLengths[slot]);
+            ids[live] = ids[slot];
+            years[live] = years[slot];
+            ownerIds[live] = ownerIds[slot];
+            authors[live] = authors[slot];
+            titleStarts[live] = heapSize;
+            titleLengths[live] = titleLengths[slot];
+            heapSize += titleLengths[slot];
+            live++;
+        }
+
+        Arrays.fill(authors, live, size, null);
+        size = live;
+        deletedCount = 0;
+        deleted.clear();
+        titleHeap = heap;
+        titleHeapSize = heapSize;
+        garbageTitleBytes = 0;
+
+        // Авторы, у которых не осталось книг
+        Set<String> usedAuthors = Collections.newSetFromMap(new IdentityHashMap<>());
+        usedAuthors.addAll(Arrays.asList(authors).subList(0, size));
+        authorPool.values().removeIf(author -> !usedAuthors.contains(author));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length)
+            return;
+
+        int newCapacity = Math.max(capacity, Math.max(16, ids.length * 3 / 2));
+        ids = Arrays.copyOf(ids, newCapacity);
+        years = Arrays.copyOf(years, newCapacity);
+        ownerIds = Arrays.copyOf(ownerIds, newCapacity);
+        authors = Arrays.copyOf(authors, newCapacity);
+        titleStarts = Arrays.copyOf(titleStarts, newCapacity);
+        titleLengths = Arrays.copyOf(titleLengths, newCapacity);
+    }
+
+    // Живые слоты по возрастанию года (при равном годе - по слоту, т.е. по id).
+    // Сортируем пары (год, слот), упакованные в long: год в старших 32 битах, слот в младших.
+    // Годы в БД ничем не ограничены, поэтому не сортировка подсчетом: одной книге с годом вроде 2000000000
+    // ей хватило бы, чтобы выделить массив на гигабайты.
+    // Вызывается под read lock'ом: гонка двух читателей безопасна, оба посчитают одно и то же
+    private int[] yearOrder() {
+        int[] order = byYear;
+        if (order != null)
+            return order;
+
+        long[] keys = new long[size - deletedCount];
+        int live = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (!deleted.get(slot))
+                keys[live++] = ((long) years[slot] << 32) | slot; // слот неотрицательный - знак года не портит
+        }
+        Arrays.sort(keys);
+
+        order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            order[i] = (int) keys[i];
+
+        byYear = order;
+        return order;
+    }
+
+    // Первая позиция в order, где год >= year
+    private int lowerBound(int[] order, int year) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (years[order[middle]] < year)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private boolean matches(int slot, int yearFrom, int yearTo, boolean availableOnly) {
+        return !deleted.get(slot)
+                && years[slot] >= yearFrom && years[slot] <= yearTo
+                && (!availableOnly || ownerIds[slot] == NO_OWNER);
+    }
+
+    // Легкая книга для списков: у владельца заполнен только id
+    private Book toBook(int slot) {
+        Book book = new Book(new String(titleHeap, titleStarts[slot], titleLengths[slot], StandardCharsets.UTF_8),
+                authors[slot], years[slot]);
+        book.setBook_id(ids[slot]);
+
+        if (ownerIds[slot] != NO_OWNER) {
+            Person owner = new Person();
+            owner.setUser_id(ownerIds[slot]);
+            book.setOwner(owner);
+        }
+
+        return book;
+    }
+}
@@ -0,0 +1,71 @@
+package ru.smm.springcourse.cache;
+
+import java.util.Objects;
+
+// Событие "сущность изменилась". Пара (тип, id) - это ключ, по которому кэши выбрасывают устаревшие данные
+public final class EntityChangedEvent {
+
+    // code - как тип записывается в уведомлениях между узлами (PostgresInvalidationBus)
+    public enum Type {
+        BOOK('B'),
+        PERSON('P'),
+        // Удаление человека через ON DELETE SET NULL освобождает его книги, поэтому на него
+        // должны реагировать и те, кому изменения людей в остальном не важны (наличие книг, владельцы)
+        PERSON_DELETED('D');
+
+        private final char code;
+
+        Type(char code) {
+            this.code = code;
+        }
+
+        public char getCode() {
+            return code;
+        }
+
+        public static Type fromCode(char code) {
+            for (Type type : values()) {
+                if (type.code == code)
+                    return type;
+            }
+            throw new IllegalArgumentException("Unknown event type code '" + code + "'");
+        }
+    }
+
+    private final Type type;
+    private final int id;
+
+    public EntityChangedEvent(Type type, int id) {
+        this.type = Objects.requireNonNull(type);
+        this.id = id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof EntityChangedEvent))
+            return false;
+
+        EntityChangedEvent that = (EntityChangedEvent) o;
+        return id == that.id && type == that.type;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + id;
+    }
+
+    @Override
+    public String toString() {
+        return type + "#" + id;
+    }
+}
@@ -0,0 +1,31 @@
+package ru.smm.springcourse.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Шина в пределах одной JVM. Подходит для одного узла и для тестов:
+// несколько экземпляров, связанных через connect(), ведут себя как узлы кластера
+public class InMemoryInvalidationBus extends AbstractInvalidationBus {
+
+    private final List<InMemoryInvalidationBus> peers = new CopyOnWriteArrayList<>();
+
+    public InMemoryInvalidationBus(long flushIntervalMillis, int maxBatchSize) {
+        super(flushIntervalMillis, maxBatchSize);
+    }
+
+    // Связать два "узла" в обе стороны
+    public void connect(InMemoryInvalidationBus other) {
+        if (other == this)
+            return;
+        peers.add(other);
+        other.peers.add(this);
+    }
+
+    @Override
+    protected void send(Set<EntityChangedEvent> batch) {
+        for (InMemoryInvalidationBus peer : peers)
+            peer.deliver(Collections.unmodifiableSet(batch));
+    }
+}
@@ -0,0 +1,15 @@
+package ru.smm.springcourse.cache;
+
+// Шина инвалидации: рассылает события об изменении книг и людей всем узлам приложения
+public interface InvalidationBus {
+
+    // Сообщить, что сущность изменилась. Если вызвано внутри транзакции,
+    // событие уйдет только после успешного commit (при rollback - не уйдет вовсе).
+    // Подписчики этого узла получают его сразу (после commit - в потоке, который его сделал)
+    void publish(EntityChangedEvent.Type type, int id);
+
+    void subscribe(InvalidationListener listener);
+
+    // Отправить все накопленное и остановить фоновые потоки
+    void shutdown();
+}
@@ -0,0 +1,15 @@
+package ru.smm.springcourse.cache;
+
+import java.util.Set;
+
+// Подписчик шины инвалидации (обычно - какой-нибудь кэш внутри приложения)
+public interface InvalidationListener {
+
+    // Пачка изменившихся сущностей. Повторы внутри пачки уже схлопнуты
+    void onInvalidate(Set<EntityChangedEvent> events);
+
+    // Часть событий могла потеряться (например, узел переподключался к БД),
+    // поэтому подписчику надо сбросить все, что он закэшировал
+    default void onReset() {
+    }
+}
@@ -0,0 +1,169 @@
+package ru.smm.springcourse.cache;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+// Шина между узлами через PostgreSQL LISTEN/NOTIFY.
+// Формат сообщения: "<id узла> B12 B15 P3 D4" (B - книга, P - человек, D - удаленный человек).
+// Узел получает события другого узла не позже чем через flushIntervalMillis после commit
+// (если NOTIFY не прошел - с одной из следующих пачек)
+public class PostgresInvalidationBus extends AbstractInvalidationBus {
+
+    // У NOTIFY ограничение на payload - 8000 байт, оставляем запас
+    private static final int MAX_PAYLOAD_LENGTH = 7000;
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final String channel;
+    private final long pollMillis;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Thread listenerThread;
+    private volatile boolean running = true;
+    private volatile Connection listenConnection;
+
+    public PostgresInvalidationBus(DataSource dataSource, String channel,
+                                   long flushIntervalMillis, int maxBatchSize) {
+        super(flushIntervalMillis, maxBatchSize);
+
+        // Имя канала подставляется в LISTEN как идентификатор, параметром его не передать
+        if (!channel.matches("[a-z_][a-z0-9_]*"))
+            throw new IllegalArgumentException("Invalid invalidation channel name: " + channel);
+
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.channel = channel;
+        this.pollMillis = Math.max(flushIntervalMillis, 100);
+
+        this.listenerThread = new Thread(this::listen, "invalidation-bus-listener");
+        this.listenerThread.setDaemon(true);
+        this.listenerThread.start();
+    }
+
+    @Override
+    protected void send(Set<EntityChangedEvent> batch) {
+        StringBuilder payload = new StringBuilder(nodeId);
+
+        for (EntityChangedEvent event : batch) {
+            if (payload.length() > MAX_PAYLOAD_LENGTH) {
+                notify(payload.toString());
+                payload.setLength(0);
+                payload.append(nodeId);
+            }
+            payload.append(' ').append(event.getType().getCode()).append(event.getId());
+        }
+
+        notify(payload.toString());
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        running = false;
+        listenerThread.interrupt();
+        closeListenConnection();
+    }
+
+    private void notify(String payload) {
+        jdbcTemplate.execute("SELECT pg_notify(?, ?)", (PreparedStatementCallback<Boolean>) ps -> {
+            ps.setString(1, channel);
+            ps.setString(2, payload);
+            return ps.execute();
+        });
+    }
+
+    // Фоновый поток держит отдельное соединение с LISTEN и ждет уведомлений
+    private void listen() {
+        boolean firstAttempt = true;
+
+        while (running) {
+            try {
+                if (listenConnection == null) {
+                    // Любое подключение, кроме самой первой попытки, - повторное (даже если первая не удалась):
+                    // пока соединения не было, кэши могли загрузиться и пропустить чужие события
+                    boolean reconnect = !firstAttempt;
+                    firstAttempt = false;
+
+                    listenConnection = openListenConnection();
+                    if (reconnect)
+                        deliverReset();
+                }
+
+                PGNotification[] notifications = listenConnection.unwrap(PGConnection.class)
+                        .getNotifications((int) pollMillis);
+
+                if (notifications != null)
+                    handle(notifications);
+            } catch (SQLException e) {
+                if (!running)
+                    return;
+
+                log.warn("Invalidation listener connection lost, reconnecting", e);
+                closeListenConnection();
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private Connection openListenConnection() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(true);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("LISTEN " + channel);
+        }
+
+        return connection;
+    }
+
+    private void closeListenConnection() {
+        Connection connection = listenConnection;
+        listenConnection = null;
+
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // соединение и так уже не рабочее
+            }
+        }
+    }
+
+    private void handle(PGNotification[] notifications) {
+        Set<EntityChangedEvent> events = new LinkedHashSet<>();
+
+        for (PGNotification notification : notifications) {
+            String[] tokens = notification.getParameter().split(" ");
+
+            // Свои события локальные подписчики уже получили при отправке
+            if (tokens.length == 0 || nodeId.equals(tokens[0]))
+                continue;
+
+            for (int i = 1; i < tokens.length; i++) {
+                try {
+                    EntityChangedEvent.Type type = EntityChangedEvent.Type.fromCode(tokens[i].charAt(0));
+                    events.add(new EntityChangedEvent(type, Integer.parseInt(tokens[i].substring(1))));
+                } catch (RuntimeException e) {
+                    log.warn("Skipping malformed invalidation token '" + tokens[i] + "'");
+                }
+            }
+        }
+
+        if (!events.isEmpty())
+            deliver(events);
+    }
+}
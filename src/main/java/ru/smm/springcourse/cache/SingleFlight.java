@@ -0,0 +1,98 @@
+package ru.smm.springcourse.cache;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Схлопывание одинаковых одновременных запросов: пока загрузка по ключу идет,
+// остальные потоки с тем же ключом не идут в БД, а ждут ее результат.
+// Результат общий для всех ждущих, поэтому менять возвращенные объекты нельзя.
+// Метрики видны по JMX (ru.smm.springcourse.cache:type=SingleFlight,name=<имя бина>)
+@ManagedResource
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    // Сколько ждущий поток готов ждать чужую загрузку, прежде чем пойти в БД сам
+    private final long timeoutMillis;
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public SingleFlight(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public V load(K key, Supplier<V> loader) {
+        CompletableFuture<V> ours = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, ours);
+
+        // Никто этот ключ сейчас не грузит - грузим сами в своем потоке (и в своей транзакции)
+        if (running == null) {
+            loads.incrementAndGet();
+            try {
+                V value = loader.get();
+                ours.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                ours.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, ours);
+            }
+        }
+
+        try {
+            V value = running.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            deduplicated.incrementAndGet();
+            return value;
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            loads.incrementAndGet();
+            return loader.get();
+        } catch (ExecutionException e) {
+            // Ошибку загрузки получают все, кто ее ждал
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + key, e);
+        }
+    }
+
+    // Данные по ключу изменились: следующие запросы не должны присоединяться к уже идущей (старой) загрузке
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    public void forgetAll() {
+        inFlight.clear();
+    }
+
+    @ManagedAttribute(description = "Loads that actually went to the database")
+    public long getLoads() {
+        return loads.get();
+    }
+
+    @ManagedAttribute(description = "Calls served by another thread's in-flight load")
+    public long getDeduplicatedCalls() {
+        return deduplicated.get();
+    }
+
+    @ManagedAttribute(description = "Waiters that gave up and loaded on their own")
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    @ManagedAttribute(description = "Keys being loaded right now")
+    public int getInFlight() {
+        return inFlight.size();
+    }
+}
@@ -34,18 +34,22 @@ public class MySpringMvcDispatcherServletInitializer extends AbstractAnnotationC
     }
 
     private void registerHiddenFieldFilter(ServletContext aContext) {
-        aContext.addFilter("hiddenHttpMethodFilter",
-                new HiddenHttpMethodFilter()).addMappingForUrlPatterns(null, true, "/*");
+        FilterRegistration.Dynamic hiddenHttpMethod = aContext.addFilter("hiddenHttpMethodFilter",
+                new HiddenHttpMethodFilter());
+        hiddenHttpMethod.setAsyncSupported(true); // обработчики, возвращающие Callable, запускают async-запрос
+        hiddenHttpMethod.addMappingForUrlPatterns(null, true, "/*");
     }
 
     private void registerCharacterEncodingFilter(ServletContext aContext) {
-        EnumSet<DispatcherType> dispatcherTypes = EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD);
+        EnumSet<DispatcherType> dispatcherTypes = EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD,
+                DispatcherType.ASYNC);
 
         CharacterEncodingFilter characterEncodingFilter = new CharacterEncodingFilter();
         characterEncodingFilter.setEncoding("UTF-8");
         characterEncodingFilter.setForceEncoding(true);
 
         FilterRegistration.Dynamic characterEncoding = aContext.addFilter("characterEncoding", characterEncodingFilter);
+        characterEncoding.setAsyncSupported(true);
         characterEncoding.addMappingForUrlPatterns(dispatcherTypes, true, "/*");
     }
 }
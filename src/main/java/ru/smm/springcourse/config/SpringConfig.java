@@ -1,35 +1,64 @@
 package ru.smm.springcourse.config;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableMBeanExport;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jmx.support.RegistrationPolicy;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ViewResolverRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
 import org.thymeleaf.spring5.SpringTemplateEngine;
 import org.thymeleaf.spring5.templateresolver.SpringResourceTemplateResolver;
 import org.thymeleaf.spring5.view.ThymeleafViewResolver;
+import ru.smm.springcourse.cache.CatalogSnapshot;
+import ru.smm.springcourse.cache.InMemoryInvalidationBus;
+import ru.smm.springcourse.cache.InvalidationBus;
+import ru.smm.springcourse.cache.PostgresInvalidationBus;
+import ru.smm.springcourse.cache.SingleFlight;
+import ru.smm.springcourse.models.Book;
+import ru.smm.springcourse.models.Person;
+import ru.smm.springcourse.util.AdmissionControlInterceptor;
+import ru.smm.springcourse.util.DatabaseTaskExecutor;
+import ru.smm.springcourse.util.InlineCallableReturnValueHandler;
+import ru.smm.springcourse.util.StreamingThymeleafView;
+import ru.smm.springcourse.util.StreamingViewSettings;
+import ru.smm.springcourse.util.TransactionWatchdog;
+import ru.smm.springcourse.util.WatchdogJpaTransactionManager;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
 
 @Configuration
 @ComponentScan("ru.smm.springcourse")
-@PropertySource("classpath:hibernate.properties") // свойство для подключения файла с ресурсами
+@PropertySource({"classpath:hibernate.properties", "classpath:library.properties"}) // свойство для подключения файлов с ресурсами
 @EnableTransactionManagement // Чтобы спринг сам начинал и заканчивал транзакции
 @EnableJpaRepositories("ru.smm.springcourse.repositories") // включаем поддержку JPA Repositories
 @EnableWebMvc
+@EnableMBeanExport(registration = RegistrationPolicy.REPLACE_EXISTING) // метрики приложения видны по JMX
 public class SpringConfig implements WebMvcConfigurer {
 
     private final ApplicationContext applicationContext;
@@ -67,10 +96,76 @@ public class SpringConfig implements WebMvcConfigurer {
         ThymeleafViewResolver resolver = new ThymeleafViewResolver();
         resolver.setTemplateEngine(templateEngine());
         resolver.setCharacterEncoding("UTF-8");
+        // Шаблон пишется сразу в ответ, а не собирается сначала целиком в строку
+        resolver.setProducePartialOutputWhileProcessing(true);
+
+        // Потоковый режим: страница уходит клиенту частями (и сжатой), пока еще рисуется
+        if (streamingViewSettings().isEnabled())
+            resolver.setViewClass(StreamingThymeleafView.class);
 
         registry.viewResolver(resolver);
     }
 
+    // Ограничение одновременных запросов к тяжелым страницам (@ConcurrencyLimit на обработчике)
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(admissionControlInterceptor());
+    }
+
+    @Bean
+    public StreamingViewSettings streamingViewSettings() {
+        return new StreamingViewSettings(
+                environment.getProperty("views.streaming.enabled", Boolean.class, false),
+                environment.getProperty("views.streaming.fetch_size", Integer.class, 500),
+                environment.getProperty("views.streaming.chunk_size", Integer.class, 16 * 1024),
+                environment.getProperty("views.streaming.compression", Boolean.class, true));
+    }
+
+    @Bean
+    public AdmissionControlInterceptor admissionControlInterceptor() {
+        return new AdmissionControlInterceptor(environment);
+    }
+
+    // Обработчики, которые возвращают Callable, выполняются в отдельном ограниченном пуле
+    // (при mvc.async.enabled=true, иначе см. inlineCallableHandlers())
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(databaseTaskExecutor());
+        configurer.setDefaultTimeout(environment.getProperty("mvc.async.timeout_ms", Long.class, 30000L));
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public DatabaseTaskExecutor databaseTaskExecutor() {
+        if (!environment.getProperty("mvc.async.enabled", Boolean.class, false))
+            return DatabaseTaskExecutor.inline();
+
+        return DatabaseTaskExecutor.bounded(
+                environment.getProperty("mvc.async.max_concurrency", Integer.class, 20),
+                environment.getProperty("mvc.async.queue_capacity", Integer.class, 200),
+                environment.getProperty("mvc.async.virtual_threads", Boolean.class, false));
+    }
+
+    // Асинхронный режим выключен - обработчики, возвращающие Callable, выполняются синхронно, как обычные.
+    // Обработка Callable ставится первой, иначе запрос все равно ушел бы в startAsync
+    @Bean
+    public static BeanPostProcessor inlineCallableHandlers(Environment environment) {
+        boolean asyncEnabled = environment.getProperty("mvc.async.enabled", Boolean.class, false);
+
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!asyncEnabled && bean instanceof RequestMappingHandlerAdapter) {
+                    RequestMappingHandlerAdapter adapter = (RequestMappingHandlerAdapter) bean;
+                    List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>();
+                    handlers.add(new InlineCallableReturnValueHandler());
+                    handlers.addAll(adapter.getReturnValueHandlers());
+                    adapter.setReturnValueHandlers(handlers);
+                }
+                return bean;
+            }
+        };
+    }
+
     @Bean
     public DataSource dataSource() {
         DriverManagerDataSource dataSource = new DriverManagerDataSource();
@@ -101,16 +196,90 @@ public class SpringConfig implements WebMvcConfigurer {
         em.setJpaVendorAdapter(vendorAdapter);
         em.setJpaProperties(hibernateProperties());
 
+        // Watchdog считает SQL-запросы и загруженные сущности в каждой транзакции
+        if (watchdogEnabled()) {
+            em.getJpaPropertyMap().put("hibernate.session_factory.statement_inspector",
+                    transactionWatchdog().statementInspector());
+            em.getJpaPropertyMap().put("hibernate.session_factory.interceptor", transactionWatchdog().interceptor());
+        }
+
         return em;
     }
 
     @Bean
     public PlatformTransactionManager transactionManager() {
-        JpaTransactionManager transactionManager = new JpaTransactionManager();
+        JpaTransactionManager transactionManager = watchdogEnabled()
+                ? new WatchdogJpaTransactionManager(transactionWatchdog())
+                : new JpaTransactionManager();
         transactionManager.setEntityManagerFactory(entityManagerFactory().getObject());
 
         return transactionManager;
     }
 
+    // Пишет в лог долгие транзакции, транзакции с лавиной ленивых загрузок и зависшие транзакции.
+    // При watchdog.enabled=false бина (и его потока) нет
+    @Bean(destroyMethod = "shutdown")
+    @Conditional(WatchdogEnabledCondition.class)
+    public TransactionWatchdog transactionWatchdog() {
+        return new TransactionWatchdog(
+                environment.getProperty("watchdog.slow_transaction_ms", Long.class, 500L),
+                environment.getProperty("watchdog.max_statements", Integer.class, 50),
+                environment.getProperty("watchdog.max_entities", Integer.class, 1000),
+                environment.getProperty("watchdog.leak_ms", Long.class, 30000L));
+    }
+
+    private boolean watchdogEnabled() {
+        return watchdogEnabled(environment);
+    }
+
+    private static boolean watchdogEnabled(Environment environment) {
+        return environment.getProperty("watchdog.enabled", Boolean.class, true);
+    }
+
+    static class WatchdogEnabledCondition implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return watchdogEnabled(context.getEnvironment());
+        }
+    }
+
+    // Шина, через которую узлы сообщают друг другу об изменении книг и людей
+    @Bean(destroyMethod = "shutdown")
+    public InvalidationBus invalidationBus() {
+        long flushIntervalMillis = environment.getProperty("invalidation.flush_interval_ms", Long.class, 200L);
+        int maxBatchSize = environment.getProperty("invalidation.max_batch_size", Integer.class, 500);
+
+        if ("postgres".equals(environment.getProperty("invalidation.bus", "memory")))
+            return new PostgresInvalidationBus(dataSource(),
+                    environment.getProperty("invalidation.channel", "library_invalidation"),
+                    flushIntervalMillis, maxBatchSize);
+
+        return new InMemoryInvalidationBus(flushIntervalMillis, maxBatchSize);
+    }
+
+    // Копия каталога в памяти для сортировки и фильтров без БД (включается в library.properties)
+    @Bean
+    public CatalogSnapshot catalogSnapshot() {
+        CatalogSnapshot catalogSnapshot = new CatalogSnapshot(dataSource(),
+                environment.getProperty("catalog.snapshot.enabled", Boolean.class, false));
+
+        if (catalogSnapshot.isEnabled())
+            invalidationBus().subscribe(catalogSnapshot);
+
+        return catalogSnapshot;
+    }
+
+    // Одновременные запросы одной и той же книги (по id) делят одну загрузку из БД
+    @Bean
+    public SingleFlight<Integer, Optional<Book>> bookLoads() {
+        return new SingleFlight<>(environment.getProperty("coalescing.timeout_ms", Long.class, 2000L));
+    }
+
+    // То же для списка всех людей (показывается на странице каждой свободной книги)
+    @Bean
+    public SingleFlight<String, List<Person>> peopleLoads() {
+        return new SingleFlight<>(environment.getProperty("coalescing.timeout_ms", Long.class, 2000L));
+    }
+
 }
 
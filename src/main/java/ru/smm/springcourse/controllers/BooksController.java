@@ -6,55 +6,120 @@ import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import ru.smm.springcourse.models.Book;
+import ru.smm.springcourse.models.BookBrowsePage;
+import ru.smm.springcourse.models.BookFilter;
 import ru.smm.springcourse.models.Person;
+import ru.smm.springcourse.services.BookFacetsService;
 import ru.smm.springcourse.services.BooksService;
+import ru.smm.springcourse.services.LoanHistoryService;
 import ru.smm.springcourse.services.PeopleService;
+import ru.smm.springcourse.util.ConcurrencyLimit;
 
 import javax.validation.Valid;
+import java.util.concurrent.Callable;
 
 @Controller
 @RequestMapping("/books")
 public class BooksController {
 
+    // Сколько книг на странице фасетного поиска
+    private static final int BROWSE_BOOKS_PER_PAGE = 50;
+
     private final BooksService booksService;
     private final PeopleService peopleService;
+    private final LoanHistoryService loanHistoryService;
+    private final BookFacetsService bookFacetsService;
 
     @Autowired
-    public BooksController(BooksService booksService, PeopleService peopleService) {
+    public BooksController(BooksService booksService, PeopleService peopleService,
+                           LoanHistoryService loanHistoryService, BookFacetsService bookFacetsService) {
         this.booksService = booksService;
         this.peopleService = peopleService;
+        this.loanHistoryService = loanHistoryService;
+        this.bookFacetsService = bookFacetsService;
     }
 
     // Получим все книги из БД и передадим на отображение в представление
     // required = false - значит, что параметр необязательный
+    // Callable - запрос к БД выполнится в пуле DatabaseTaskExecutor, а не в потоке контейнера
+    // Без постраничного вывода это самая тяжелая страница, поэтому одновременно их рисуется немного
     @GetMapping() // будет пустой, потому что уже есть /books на классе
-    public String index(Model model,
-                        @RequestParam(value = "sort_by_year", required = false) boolean sortByYear,
-                        @RequestParam(value = "page", required = false) Integer page,
-                        @RequestParam(value = "books_per_page", required = false) Integer booksPerPage) {
-
-        if (page != null || booksPerPage != null)
-            model.addAttribute("books", booksService.pagination(page, booksPerPage, sortByYear));
-        else
-            model.addAttribute("books", booksService.findAll(sortByYear));
+    @ConcurrencyLimit(value = "books.index", permits = 4, unlessParams = {"page", "books_per_page"})
+    public Callable<String> index(Model model,
+                                  @RequestParam(value = "sort_by_year", required = false) boolean sortByYear,
+                                  @RequestParam(value = "page", required = false) Integer page,
+                                  @RequestParam(value = "books_per_page", required = false) Integer booksPerPage,
+                                  @RequestParam(value = "year_from", required = false) Integer yearFrom,
+                                  @RequestParam(value = "year_to", required = false) Integer yearTo,
+                                  @RequestParam(value = "available_only", required = false) boolean availableOnly) {
+
+        return () -> {
+            // Если задан фильтр - показываем только подходящие книги и их общее количество
+            if (yearFrom != null || yearTo != null || availableOnly) {
+                model.addAttribute("books", booksService.filter(yearFrom, yearTo, availableOnly, sortByYear, page, booksPerPage));
+                model.addAttribute("booksCount", booksService.count(yearFrom, yearTo, availableOnly));
+            } else if (page != null || booksPerPage != null)
+                model.addAttribute("books", booksService.pagination(page, booksPerPage, sortByYear));
+            else
+                model.addAttribute("books", booksService.findAllForListing(sortByYear));
+
+            return "books/index";
+        };
+    }
 
-        return "books/index";
+    // Фасетный поиск: книги по автору, годам и наличию, и сколько книг у каждого значения этих признаков
+    @GetMapping("/browse")
+    public Callable<String> browse(Model model,
+                                   @RequestParam(value = "author", required = false) String author,
+                                   @RequestParam(value = "year_from", required = false) Integer yearFrom,
+                                   @RequestParam(value = "year_to", required = false) Integer yearTo,
+                                   @RequestParam(value = "available", required = false) Boolean available,
+                                   @RequestParam(value = "page", required = false, defaultValue = "0") int page) {
+        BookFilter filter = new BookFilter(author, yearFrom, yearTo, available);
+        int pageNumber = Math.max(page, 0); // ?page=-1 в адресной строке - это первая страница, а не ошибка
+
+        return () -> {
+            BookBrowsePage browsePage = bookFacetsService.browse(filter, pageNumber, BROWSE_BOOKS_PER_PAGE);
+
+            model.addAttribute("filter", filter);
+            model.addAttribute("facets", browsePage.getFacets());
+            model.addAttribute("books", browsePage.getBooks());
+            model.addAttribute("page", pageNumber);
+            model.addAttribute("booksPerPage", BROWSE_BOOKS_PER_PAGE);
+
+            return "books/browse";
+        };
     }
 
     // Получим одну книгу по id из DAO и передадим на отображение в представление
     // @PathVariable("id") - вытащит из запроса (/books/3) число 3 и передаст в качестве аргумента в метод
     @GetMapping("/{id}")
-    public String show(@PathVariable("id") int id, Model model, @ModelAttribute("person") Person person) {
-        model.addAttribute("book", booksService.findOne(id));
+    public Callable<String> show(@PathVariable("id") int id, Model model, @ModelAttribute("person") Person person) {
+        return () -> {
+            Book book = booksService.findOne(id);
+            model.addAttribute("book", book);
 
-        Person bookOwner = booksService.getBookOwner(id);
+            // владелец загружается вместе с книгой (FetchType.EAGER) - второй раз в БД не идем
+            Person bookOwner = book == null ? null : book.getOwner();
 
-        if (bookOwner != null)
-            model.addAttribute("owner", bookOwner);
-        else
-            model.addAttribute("people", peopleService.findAll());
+            if (bookOwner != null)
+                model.addAttribute("owner", bookOwner);
+            else
+                model.addAttribute("people", peopleService.findAll());
 
-        return "books/show";
+            return "books/show";
+        };
+    }
+
+    // История выдачи книги: кто и когда ее брал и возвращал
+    @GetMapping("/{id}/history")
+    public Callable<String> history(@PathVariable("id") int id, Model model) {
+        return () -> {
+            model.addAttribute("book", booksService.findOne(id));
+            model.addAttribute("events", loanHistoryService.getBookHistory(id));
+
+            return "books/history";
+        };
     }
 
     // Будет возвращать HTML форму для создания новой книги
@@ -144,10 +209,12 @@ public class BooksController {
 
     // Метод для поиска книг
     @PostMapping("/search")
-    public String searchByTitle(Model model, @RequestParam(value = "query") String query) {
-
-        model.addAttribute("books", booksService.searchByTitle(query));
+    @ConcurrencyLimit(value = "books.search", permits = 4)
+    public Callable<String> searchByTitle(Model model, @RequestParam(value = "query") String query) {
+        return () -> {
+            model.addAttribute("books", booksService.searchByTitle(query));
 
-        return "books/search";
+            return "books/search";
+        };
     }
 }
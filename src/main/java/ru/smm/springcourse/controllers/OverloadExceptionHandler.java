@@ -0,0 +1,29 @@
+package ru.smm.springcourse.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+// Очередь DatabaseTaskExecutor переполнена - это перегрузка, а не ошибка приложения:
+// отвечаем так же, как AdmissionControlInterceptor, - 503 и Retry-After, а не 500
+@ControllerAdvice
+public class OverloadExceptionHandler {
+
+    private final long retryAfterSeconds;
+
+    @Autowired
+    public OverloadExceptionHandler(Environment environment) {
+        this.retryAfterSeconds = environment.getProperty("mvc.async.retry_after_s", Long.class, 1L);
+    }
+
+    @ExceptionHandler(TaskRejectedException.class)
+    public void rejected(HttpServletResponse response) throws IOException {
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Сервер перегружен, попробуйте позже");
+    }
+}
@@ -6,40 +6,72 @@ import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import ru.smm.springcourse.models.Person;
+import ru.smm.springcourse.services.LoanHistoryService;
 import ru.smm.springcourse.services.PeopleService;
+import ru.smm.springcourse.util.ConcurrencyLimit;
 import ru.smm.springcourse.util.PersonValidator;
 
 import javax.validation.Valid;
+import java.util.concurrent.Callable;
 
 @Controller
 @RequestMapping("/people")
 public class PeopleController {
 
+    // Сколько людей на странице со списком
+    private static final int PEOPLE_PER_PAGE = 50;
+
     private final PeopleService peopleService;
     private final PersonValidator personValidator;
+    private final LoanHistoryService loanHistoryService;
 
     @Autowired
-    public PeopleController(PeopleService peopleService, PersonValidator personValidator) {
+    public PeopleController(PeopleService peopleService, PersonValidator personValidator,
+                            LoanHistoryService loanHistoryService) {
         this.peopleService = peopleService;
         this.personValidator = personValidator;
+        this.loanHistoryService = loanHistoryService;
     }
 
-    // Получим всех людей из DAO и передадим на отображение в представление
+    // Получим страницу людей (вместе с количеством их книг) и передадим на отображение в представление
+    // Callable - запрос к БД выполнится в пуле DatabaseTaskExecutor, а не в потоке контейнера
     @GetMapping() // будет пустой, потому что уже есть /people на классе
-    public String index(Model model) {
-        model.addAttribute("people", peopleService.findAll());
+    public Callable<String> index(Model model,
+                                  @RequestParam(value = "page", required = false, defaultValue = "0") int page) {
+        int pageNumber = Math.max(page, 0);
+
+        return () -> {
+            model.addAttribute("people", peopleService.findPageWithLoanSummaries(pageNumber, PEOPLE_PER_PAGE));
+            model.addAttribute("page", pageNumber);
+            model.addAttribute("peoplePerPage", PEOPLE_PER_PAGE);
 
-        return "people/index";
+            return "people/index";
+        };
     }
 
     // Получим одного человека по id из DAO и передадим на отображение в представление
     // @PathVariable("id") - вытащит из запроса (/people/3) число 3 и передаст в качестве аргумента в метод
+    // Загрузка всех книг человека и проверка просрочки - ограничиваем число одновременных запросов
     @GetMapping("/{id}")
-    public String show(@PathVariable("id") int id, Model model) {
-        model.addAttribute("person", peopleService.findOne(id));
-        model.addAttribute("books", peopleService.getBooksByPersonId(id));
+    @ConcurrencyLimit(value = "people.show", permits = 8)
+    public Callable<String> show(@PathVariable("id") int id, Model model) {
+        return () -> {
+            model.addAttribute("person", peopleService.findOne(id));
+            model.addAttribute("books", peopleService.getBooksByPersonId(id));
+
+            return "people/show";
+        };
+    }
+
+    // История человека: какие книги и когда он брал и возвращал
+    @GetMapping("/{id}/history")
+    public Callable<String> history(@PathVariable("id") int id, Model model) {
+        return () -> {
+            model.addAttribute("person", peopleService.findOne(id));
+            model.addAttribute("events", loanHistoryService.getPersonHistory(id));
 
-        return "people/show";
+            return "people/history";
+        };
     }
 
     // Будет возвращать HTML форму для создания нового человека
@@ -1,9 +1,211 @@
 package ru.smm.springcourse.dao;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.UncategorizedSQLException;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import ru.smm.springcourse.models.Book;
+import ru.smm.springcourse.models.BookFilter;
+import ru.smm.springcourse.util.StreamingViewSettings;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
 
 @Component
 public class BookDAO {
     // Здесь будут лежать специфические запросы к БД (с помощью JPA)
 
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final DataSource dataSource;
+    private final int fetchSize;
+
+    @Autowired
+    public BookDAO(DataSource dataSource, StreamingViewSettings streamingViewSettings) {
+        this.dataSource = dataSource;
+        this.fetchSize = streamingViewSettings.getFetchSize();
+    }
+
+    // Все книги для страницы со списком, которые читаются из БД по курсору по мере отрисовки.
+    // Запрос выполняется только когда шаблон начинает перебирать книги, и в памяти одновременно
+    // держится не больше fetchSize строк. Владелец не загружается - в списке он не нужен.
+    // Соединение закрывается, когда книги закончились (или по окончании запроса, если отрисовка упала)
+    public Iterable<Book> streamAll(boolean sortByYear) {
+        String sql = "SELECT book_id, title, author, year FROM Book ORDER BY "
+                + (sortByYear ? "year, book_id" : "book_id");
+
+        return () -> new BookCursor(sql);
+    }
+
+    // Книги, подходящие под фильтр, по названию. Владелец подтягивается тем же запросом
+    public List<Book> findByFilter(BookFilter filter, int offset, int limit) {
+        Map<String, Object> parameters = new HashMap<>();
+        TypedQuery<Book> query = entityManager.createQuery(
+                "select b from Book b left join fetch b.owner" + where(filter, parameters) + " order by b.title, b.book_id",
+                Book.class);
+        parameters.forEach(query::setParameter);
+
+        return query.setFirstResult(offset).setMaxResults(limit).getResultList();
+    }
+
+    // Сколько всего книг подходит под фильтр и сколько из них свободно: {всего, свободных}
+    public long[] countWithAvailability(BookFilter filter) {
+        Map<String, Object> parameters = new HashMap<>();
+        TypedQuery<Object[]> query = entityManager.createQuery(
+                "select count(b), sum(case when b.owner is null then 1 else 0 end) from Book b" + where(filter, parameters),
+                Object[].class);
+        parameters.forEach(query::setParameter);
+
+        Object[] row = query.getSingleResult();
+        return new long[]{toLong(row[0]), toLong(row[1])};
+    }
+
+    // Самые частые авторы среди подходящих книг: автор -> книг
+    public Map<String, Long> countByAuthor(BookFilter filter, int limit) {
+        Map<String, Object> parameters = new HashMap<>();
+        TypedQuery<Object[]> query = entityManager.createQuery(
+                "select b.author, count(b) from Book b" + where(filter, parameters) +
+                        " group by b.author order by count(b) desc, b.author",
+                Object[].class);
+        parameters.forEach(query::setParameter);
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Object[] row : query.setMaxResults(limit).getResultList())
+            counts.put((String) row[0], toLong(row[1]));
+        return counts;
+    }
+
+    // Подходящие книги по десятилетиям: 1990 -> книг за 1990-1999.
+    // Группируем по году (разных годов немного), а в десятилетия складываем уже здесь
+    public Map<Integer, Long> countByDecade(BookFilter filter) {
+        Map<String, Object> parameters = new HashMap<>();
+        TypedQuery<Object[]> query = entityManager.createQuery(
+                "select b.year, count(b) from Book b" + where(filter, parameters) + " group by b.year",
+                Object[].class);
+        parameters.forEach(query::setParameter);
+
+        Map<Integer, Long> counts = new TreeMap<>();
+        for (Object[] row : query.getResultList())
+            counts.merge((Integer) row[0] / 10 * 10, toLong(row[1]), Long::sum);
+        return counts;
+    }
+
+    // Условие where для фильтра, значения параметров складываются в parameters
+    private static String where(BookFilter filter, Map<String, Object> parameters) {
+        List<String> conditions = new ArrayList<>();
+
+        if (filter.getAuthor() != null) {
+            conditions.add("b.author = :author");
+            parameters.put("author", filter.getAuthor());
+        }
+        if (filter.getYearFrom() != null) {
+            conditions.add("b.year >= :yearFrom");
+            parameters.put("yearFrom", filter.getYearFrom());
+        }
+        if (filter.getYearTo() != null) {
+            conditions.add("b.year <= :yearTo");
+            parameters.put("yearTo", filter.getYearTo());
+        }
+        if (filter.getAvailable() != null)
+            conditions.add(filter.getAvailable() ? "b.owner is null" : "b.owner is not null");
+
+        return conditions.isEmpty() ? "" : " where " + String.join(" and ", conditions);
+    }
+
+    // count() и sum() возвращают Long, а на пустой выборке sum() возвращает null
+    private static long toLong(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    private class BookCursor implements Iterator<Book>, Closeable {
+
+        private final String sql;
+        private Connection connection;
+        private PreparedStatement statement;
+        private ResultSet resultSet;
+        private Book next;
+
+        private BookCursor(String sql) {
+            this.sql = sql;
+
+            try {
+                connection = dataSource.getConnection();
+                // PostgreSQL отдает строки порциями (по fetchSize) только внутри транзакции
+                connection.setAutoCommit(false);
+                connection.setReadOnly(true);
+                statement = connection.prepareStatement(sql);
+                statement.setFetchSize(fetchSize);
+                resultSet = statement.executeQuery();
+            } catch (SQLException e) {
+                close();
+                throw new UncategorizedSQLException("Open book cursor", sql, e);
+            }
+
+            RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+            if (requestAttributes != null)
+                requestAttributes.registerDestructionCallback(BookCursor.class.getName() + "@" + hashCode(),
+                        this::close, RequestAttributes.SCOPE_REQUEST);
+
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Book next() {
+            if (next == null)
+                throw new NoSuchElementException();
+
+            Book current = next;
+            advance();
+            return current;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (connection != null)
+                    connection.close(); // закроет и statement, и resultSet
+            } catch (SQLException ignored) {
+                // книги уже отданы, ошибка закрытия на результат не влияет
+            } finally {
+                connection = null;
+                statement = null;
+                resultSet = null;
+            }
+        }
+
+        private void advance() {
+            if (resultSet == null) {
+                next = null;
+                return;
+            }
+
+            try {
+                if (resultSet.next()) {
+                    next = new Book(resultSet.getString("title"), resultSet.getString("author"), resultSet.getInt("year"));
+                    next.setBook_id(resultSet.getInt("book_id"));
+                } else {
+                    next = null;
+                    close();
+                }
+            } catch (SQLException e) {
+                close();
+                throw new UncategorizedSQLException("Read book cursor", sql, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,39 @@
+package ru.smm.springcourse.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.smm.springcourse.models.LoanEvent;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+@Component
+public class LoanEventDAO {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO Loan_event (book_id, user_id, event_type, happened_at) VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public LoanEventDAO(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    // Вставка пачкой: один batch JDBC вместо отдельного INSERT на каждое событие.
+    // У событий заполнены только id книги и человека
+    public void insertAll(List<LoanEvent> events) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, events, events.size(), (ps, event) -> {
+            ps.setInt(1, event.getBook().getBook_id());
+            if (event.getPerson() != null)
+                ps.setInt(2, event.getPerson().getUser_id());
+            else
+                ps.setNull(2, Types.INTEGER);
+            ps.setString(3, event.getType().name());
+            ps.setTimestamp(4, new Timestamp(event.getHappenedAt().getTime()));
+        });
+    }
+}
@@ -0,0 +1,23 @@
+package ru.smm.springcourse.models;
+
+import java.util.List;
+
+// Страница фасетного поиска: подсчеты по фильтру и книги этой страницы
+public class BookBrowsePage {
+
+    private final BookFacets facets;
+    private final List<Book> books;
+
+    public BookBrowsePage(BookFacets facets, List<Book> books) {
+        this.facets = facets;
+        this.books = books;
+    }
+
+    public BookFacets getFacets() {
+        return facets;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+}
@@ -0,0 +1,42 @@
+package ru.smm.springcourse.models;
+
+import java.util.Map;
+
+// Подсчеты для фасетного поиска: сколько книг подходит под фильтр
+// и сколько получится, если выбрать другое значение одного из признаков
+public class BookFacets {
+
+    private final long total;
+    private final Map<String, Long> authors;  // автор -> книг, самые частые сверху
+    private final Map<Integer, Long> decades; // начало десятилетия (1990) -> книг
+    private final long available;
+    private final long taken;
+
+    public BookFacets(long total, Map<String, Long> authors, Map<Integer, Long> decades, long available, long taken) {
+        this.total = total;
+        this.authors = authors;
+        this.decades = decades;
+        this.available = available;
+        this.taken = taken;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public Map<String, Long> getAuthors() {
+        return authors;
+    }
+
+    public Map<Integer, Long> getDecades() {
+        return decades;
+    }
+
+    public long getAvailable() {
+        return available;
+    }
+
+    public long getTaken() {
+        return taken;
+    }
+}
@@ -0,0 +1,69 @@
+package ru.smm.springcourse.models;
+
+import java.util.Objects;
+
+// Условия фасетного поиска книг. null в поле - по этому признаку не фильтруем.
+// Используется и как ключ кэша подсчетов, поэтому неизменяемый и с equals/hashCode
+public final class BookFilter {
+
+    private final String author;
+    private final Integer yearFrom;
+    private final Integer yearTo;
+    private final Boolean available; // true - только свободные, false - только выданные
+
+    public BookFilter(String author, Integer yearFrom, Integer yearTo, Boolean available) {
+        this.author = author == null || author.isEmpty() ? null : author;
+        this.yearFrom = yearFrom;
+        this.yearTo = yearTo;
+        this.available = available;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public Integer getYearFrom() {
+        return yearFrom;
+    }
+
+    public Integer getYearTo() {
+        return yearTo;
+    }
+
+    public Boolean getAvailable() {
+        return available;
+    }
+
+    // Тот же фильтр, но без одного из признаков: подсчеты по признаку делаются без его собственного условия,
+    // чтобы были видны и другие значения, на которые можно переключиться
+    public BookFilter withoutAuthor() {
+        return new BookFilter(null, yearFrom, yearTo, available);
+    }
+
+    public BookFilter withoutYears() {
+        return new BookFilter(author, null, null, available);
+    }
+
+    public BookFilter withoutAvailability() {
+        return new BookFilter(author, yearFrom, yearTo, null);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof BookFilter))
+            return false;
+
+        BookFilter that = (BookFilter) o;
+        return Objects.equals(author, that.author)
+                && Objects.equals(yearFrom, that.yearFrom)
+                && Objects.equals(yearTo, that.yearTo)
+                && Objects.equals(available, that.available);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(author, yearFrom, yearTo, available);
+    }
+}
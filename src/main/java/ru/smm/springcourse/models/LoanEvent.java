@@ -0,0 +1,88 @@
+package ru.smm.springcourse.models;
+
+import javax.persistence.*;
+import java.util.Date;
+
+// Запись в истории выдачи: книгу взяли или вернули. Записи только добавляются, никогда не меняются
+@Entity
+@Table(name = "Loan_event")
+public class LoanEvent {
+
+    public enum Type {
+        CHECKOUT, // книгу взяли
+        RETURN    // книгу вернули
+    }
+
+    @Id
+    @Column(name = "event_id")
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private int event_id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "book_id", referencedColumnName = "book_id")
+    private Book book;
+
+    // null - человек с тех пор удален
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", referencedColumnName = "user_id")
+    private Person person;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "event_type")
+    private Type type;
+
+    @Column(name = "happened_at")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date happenedAt;
+
+    public LoanEvent() {
+
+    }
+
+    public LoanEvent(Book book, Person person, Type type, Date happenedAt) {
+        this.book = book;
+        this.person = person;
+        this.type = type;
+        this.happenedAt = happenedAt;
+    }
+
+    public int getEvent_id() {
+        return event_id;
+    }
+
+    public void setEvent_id(int event_id) {
+        this.event_id = event_id;
+    }
+
+    public Book getBook() {
+        return book;
+    }
+
+    public void setBook(Book book) {
+        this.book = book;
+    }
+
+    public Person getPerson() {
+        return person;
+    }
+
+    public void setPerson(Person person) {
+        this.person = person;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Date getHappenedAt() {
+        return happenedAt;
+    }
+
+    public void setHappenedAt(Date happenedAt) {
+        this.happenedAt = happenedAt;
+    }
+}
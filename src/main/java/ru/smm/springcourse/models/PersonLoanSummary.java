@@ -0,0 +1,40 @@
+package ru.smm.springcourse.models;
+
+// Человек и сводка по его книгам: сколько у него сейчас и сколько из них просрочено.
+// Не сущность - заполняется одним агрегирующим запросом (см. PeopleRepository)
+public class PersonLoanSummary {
+
+    private final int user_id;
+    private final String name;
+    private final int year_of_birth;
+    private final long booksCount;
+    private final long overdueCount;
+
+    public PersonLoanSummary(int user_id, String name, int year_of_birth, long booksCount, long overdueCount) {
+        this.user_id = user_id;
+        this.name = name;
+        this.year_of_birth = year_of_birth;
+        this.booksCount = booksCount;
+        this.overdueCount = overdueCount;
+    }
+
+    public int getUser_id() {
+        return user_id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getYear_of_birth() {
+        return year_of_birth;
+    }
+
+    public long getBooksCount() {
+        return booksCount;
+    }
+
+    public long getOverdueCount() {
+        return overdueCount;
+    }
+}
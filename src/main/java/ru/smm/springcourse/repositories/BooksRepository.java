@@ -1,12 +1,31 @@
 package ru.smm.springcourse.repositories;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.smm.springcourse.models.Book;
 
 import java.util.List;
 
+// Свои методы (findBy..., countBy...) тоже выполняются в транзакции только для чтения, как и унаследованные:
+// BooksService вызывает их и без своей транзакции
 @Repository
+@Transactional(readOnly = true)
 public interface BooksRepository extends JpaRepository<Book, Integer> {
     List<Book> findByTitleStartingWith(String title);
+
+    // Фильтр по годам издания (и по наличию - owner == null)
+    List<Book> findByYearBetween(int yearFrom, int yearTo, Sort sort);
+
+    List<Book> findByYearBetween(int yearFrom, int yearTo, Pageable pageable);
+
+    List<Book> findByYearBetweenAndOwnerIsNull(int yearFrom, int yearTo, Sort sort);
+
+    List<Book> findByYearBetweenAndOwnerIsNull(int yearFrom, int yearTo, Pageable pageable);
+
+    long countByYearBetween(int yearFrom, int yearTo);
+
+    long countByYearBetweenAndOwnerIsNull(int yearFrom, int yearTo);
 }
@@ -0,0 +1,25 @@
+package ru.smm.springcourse.repositories;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.smm.springcourse.models.LoanEvent;
+
+import java.util.List;
+
+@Repository
+public interface LoanEventsRepository extends JpaRepository<LoanEvent, Integer> {
+
+    // История книги, сразу вместе с людьми (индекс Loan_event (book_id, happened_at))
+    @Query("select e from LoanEvent e left join fetch e.person where e.book.book_id = :bookId " +
+            "order by e.happenedAt desc, e.event_id desc")
+    List<LoanEvent> findBookHistory(@Param("bookId") int bookId, Pageable pageable);
+
+    // История человека, сразу вместе с книгами (индекс Loan_event (user_id, happened_at)).
+    // У событий по удаленным книгам book_id = NULL - они тоже остаются в истории
+    @Query("select e from LoanEvent e left join fetch e.book where e.person.user_id = :personId " +
+            "order by e.happenedAt desc, e.event_id desc")
+    List<LoanEvent> findPersonHistory(@Param("personId") int personId, Pageable pageable);
+}
@@ -1,12 +1,35 @@
 package ru.smm.springcourse.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.smm.springcourse.models.Person;
+import ru.smm.springcourse.models.PersonLoanSummary;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface PeopleRepository extends JpaRepository<Person, Integer> {
     Optional<Person> findByName (String fullName);
+
+    // id людей одной страницы списка (без подсчета общего числа, как у findAll(Pageable))
+    @Query("select p.user_id from Person p order by p.user_id")
+    List<Integer> findUserIds(Pageable pageable);
+
+    // Люди с указанными id со сводкой по книгам за один запрос, без загрузки Person.books у каждого.
+    // Книги ищутся по индексу Book (user_id) только для этих людей, а не группировкой всей таблицы Book.
+    // Просроченной считается книга, взятая раньше overdueSince
+    @Query("select new ru.smm.springcourse.models.PersonLoanSummary(p.user_id, p.name, p.year_of_birth, " +
+            "count(b), sum(case when b.takenAt < :overdueSince then 1 else 0 end)) " +
+            "from Person p left join p.books b " +
+            "where p.user_id in :ids " +
+            "group by p.user_id, p.name, p.year_of_birth " +
+            "order by p.user_id")
+    List<PersonLoanSummary> findLoanSummaries(@Param("ids") Collection<Integer> ids,
+                                              @Param("overdueSince") Date overdueSince);
 }
@@ -0,0 +1,91 @@
+package ru.smm.springcourse.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.smm.springcourse.cache.EntityChangedEvent;
+import ru.smm.springcourse.cache.InvalidationBus;
+import ru.smm.springcourse.dao.BookDAO;
+import ru.smm.springcourse.models.Book;
+import ru.smm.springcourse.models.BookBrowsePage;
+import ru.smm.springcourse.models.BookFacets;
+import ru.smm.springcourse.models.BookFilter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Фасетный поиск книг: по автору, годам и наличию, со счетчиками для каждого значения.
+// Счетчики считаются агрегирующими запросами (GROUP BY) и кэшируются до ближайшего изменения
+// книг или удаления людей (о нем сообщает шина инвалидации, в том числе с других узлов)
+@Service
+@Transactional(readOnly = true)
+public class BookFacetsService {
+
+    // Сколько авторов показывать в списке
+    private static final int TOP_AUTHORS = 20;
+    // Кэш не растет бесконечно: при переполнении просто сбрасывается
+    private static final int MAX_CACHED_FILTERS = 1000;
+
+    private final BookDAO bookDAO;
+    private final Map<BookFilter, BookFacets> facetsCache = new ConcurrentHashMap<>();
+    // Меняется при каждом сбросе кэша: подсчет, начатый до изменения книг, в кэш не попадет
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    public BookFacetsService(BookDAO bookDAO, InvalidationBus invalidationBus) {
+        this.bookDAO = bookDAO;
+
+        // Любая книга могла поменять автора, год или владельца - все подсчеты устарели.
+        // Из изменений людей на счетчики влияет только удаление (книги освобождаются)
+        invalidationBus.subscribe(events -> {
+            if (events.stream().anyMatch(event -> event.getType() == EntityChangedEvent.Type.BOOK
+                    || event.getType() == EntityChangedEvent.Type.PERSON_DELETED)) {
+                generation.incrementAndGet();
+                facetsCache.clear();
+            }
+        });
+    }
+
+    // Подсчеты и книги страницы в одной транзакции - одно соединение с БД на запрос страницы
+    // (книги нужны всегда, так что при подсчетах из кэша оно все равно понадобится)
+    public BookBrowsePage browse(BookFilter filter, int page, int booksPerPage) {
+        return new BookBrowsePage(getFacets(filter), findBooks(filter, page, booksPerPage));
+    }
+
+    public BookFacets getFacets(BookFilter filter) {
+        BookFacets facets = facetsCache.get(filter);
+
+        if (facets == null) {
+            long countedAt = generation.get();
+            facets = countFacets(filter);
+
+            if (facetsCache.size() >= MAX_CACHED_FILTERS)
+                facetsCache.clear();
+            if (generation.get() == countedAt)
+                facetsCache.put(filter, facets);
+        }
+
+        return facets;
+    }
+
+    public List<Book> findBooks(BookFilter filter, int page, int booksPerPage) {
+        return bookDAO.findByFilter(filter, page * booksPerPage, booksPerPage);
+    }
+
+    private BookFacets countFacets(BookFilter filter) {
+        long[] byAvailability = bookDAO.countWithAvailability(filter.withoutAvailability());
+        long total;
+        if (filter.getAvailable() == null)
+            total = byAvailability[0];
+        else
+            total = filter.getAvailable() ? byAvailability[1] : byAvailability[0] - byAvailability[1];
+
+        return new BookFacets(total,
+                bookDAO.countByAuthor(filter.withoutAuthor(), TOP_AUTHORS),
+                bookDAO.countByDecade(filter.withoutYears()),
+                byAvailability[1],
+                byAvailability[0] - byAvailability[1]);
+    }
+}
@@ -4,10 +4,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import ru.smm.springcourse.cache.CatalogSnapshot;
+import ru.smm.springcourse.cache.EntityChangedEvent;
+import ru.smm.springcourse.cache.InvalidationBus;
+import ru.smm.springcourse.cache.SingleFlight;
+import ru.smm.springcourse.dao.BookDAO;
 import ru.smm.springcourse.models.Book;
 import ru.smm.springcourse.models.Person;
 import ru.smm.springcourse.repositories.BooksRepository;
+import ru.smm.springcourse.util.StreamingViewSettings;
 
 import java.util.Date;
 import java.util.List;
@@ -18,20 +25,99 @@ import java.util.Optional;
 public class BooksService {
 
     private final BooksRepository booksRepository;
+    private final BookDAO bookDAO;
+    private final InvalidationBus invalidationBus;
+    private final SingleFlight<Integer, Optional<Book>> bookLoads;
+    private final CatalogSnapshot catalogSnapshot;
+    private final LoanHistoryService loanHistoryService;
+    private final boolean streamingEnabled;
 
     @Autowired
-    public BooksService(BooksRepository booksRepository) {
+    public BooksService(BooksRepository booksRepository, BookDAO bookDAO, InvalidationBus invalidationBus,
+                        SingleFlight<Integer, Optional<Book>> bookLoads, CatalogSnapshot catalogSnapshot,
+                        LoanHistoryService loanHistoryService, StreamingViewSettings streamingViewSettings) {
         this.booksRepository = booksRepository;
+        this.bookDAO = bookDAO;
+        this.invalidationBus = invalidationBus;
+        this.bookLoads = bookLoads;
+        this.catalogSnapshot = catalogSnapshot;
+        this.loanHistoryService = loanHistoryService;
+        this.streamingEnabled = streamingViewSettings.isEnabled();
+
+        // Книга изменилась - новые запросы не должны получить результат загрузки, начатой до изменения
+        invalidationBus.subscribe(events -> events.forEach(event -> {
+            if (event.getType() == EntityChangedEvent.Type.BOOK)
+                bookLoads.forget(event.getId());
+            else
+                bookLoads.forgetAll(); // у книг мог смениться владелец
+        }));
     }
 
-    // Вернет список всех книг
+    // Вернет список всех книг.
+    // Без транзакции сервиса: ответ из снимка каталога не должен открывать соединение с БД,
+    // а запросы к БД идут в транзакциях репозитория (так же у filter() и count())
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<Book> findAll(boolean sortByYear) {
-        if (sortByYear)
+        if (sortByYear && catalogSnapshot.isEnabled())
+            return catalogSnapshot.sortedByYear(); // без похода в БД
+        else if (sortByYear)
             return booksRepository.findAll(Sort.by("year"));
         else
             return booksRepository.findAll();
     }
 
+    // Все книги для страницы со списком. В потоковом режиме книги читаются из БД по курсору
+    // во время отрисовки страницы, поэтому транзакция здесь не нужна (курсор откроет свое соединение)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Iterable<Book> findAllForListing(boolean sortByYear) {
+        if (streamingEnabled && !(sortByYear && catalogSnapshot.isEnabled()))
+            return bookDAO.streamAll(sortByYear);
+
+        return findAll(sortByYear);
+    }
+
+    // Книги с годом издания в [yearFrom, yearTo] (null - без ограничения), при availableOnly - только свободные.
+    // Если booksPerPage не задан - все подходящие книги
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<Book> filter(Integer yearFrom, Integer yearTo, boolean availableOnly, boolean sortByYear,
+                             Integer page, Integer booksPerPage) {
+        int from = yearFrom == null ? Integer.MIN_VALUE : yearFrom;
+        int to = yearTo == null ? Integer.MAX_VALUE : yearTo;
+        int pageNumber = page == null ? 0 : page;
+
+        if (catalogSnapshot.isEnabled()) {
+            if (booksPerPage == null)
+                return catalogSnapshot.filter(from, to, availableOnly, sortByYear, 0, Integer.MAX_VALUE);
+            return catalogSnapshot.filter(from, to, availableOnly, sortByYear, pageNumber * booksPerPage, booksPerPage);
+        }
+
+        Sort sort = sortByYear ? Sort.by("year") : Sort.by("book_id");
+
+        if (booksPerPage == null)
+            return availableOnly
+                    ? booksRepository.findByYearBetweenAndOwnerIsNull(from, to, sort)
+                    : booksRepository.findByYearBetween(from, to, sort);
+
+        PageRequest pageRequest = PageRequest.of(pageNumber, booksPerPage, sort);
+        return availableOnly
+                ? booksRepository.findByYearBetweenAndOwnerIsNull(from, to, pageRequest)
+                : booksRepository.findByYearBetween(from, to, pageRequest);
+    }
+
+    // Сколько всего книг подходит под фильтр (для постраничного вывода)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public long count(Integer yearFrom, Integer yearTo, boolean availableOnly) {
+        int from = yearFrom == null ? Integer.MIN_VALUE : yearFrom;
+        int to = yearTo == null ? Integer.MAX_VALUE : yearTo;
+
+        if (catalogSnapshot.isEnabled())
+            return catalogSnapshot.count(from, to, availableOnly);
+
+        return availableOnly
+                ? booksRepository.countByYearBetweenAndOwnerIsNull(from, to)
+                : booksRepository.countByYearBetween(from, to);
+    }
+
     public List<Book> pagination(Integer page, Integer booksPerPage, boolean sortByYear) {
         if (sortByYear)
             return booksRepository.findAll(PageRequest.of(page, booksPerPage, Sort.by("year"))).getContent();
@@ -39,9 +125,12 @@ public class BooksService {
             return booksRepository.findAll(PageRequest.of(page, booksPerPage)).getContent();
     }
 
-    // вернет одну книгу из БД по ее id
+    // вернет одну книгу из БД по ее id.
+    // Без транзакции сервиса: ждущие чужую загрузку потоки не должны держать соединение из пула,
+    // а сама загрузка идет в транзакции репозитория
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Book findOne(int id) {
-        Optional<Book> foundBook = booksRepository.findById(id);
+        Optional<Book> foundBook = loadBook(id);
 
         // Возвращаем книгу, если она была найдена, иначе - null
         return foundBook.orElse(null);
@@ -51,6 +140,7 @@ public class BooksService {
     @Transactional // тут будет больший приоритет над аннотацией класса
     public void save(Book book) {
         booksRepository.save(book);
+        invalidationBus.publish(EntityChangedEvent.Type.BOOK, book.getBook_id());
     }
 
     // Обновляем данные книги в БД
@@ -65,20 +155,20 @@ public class BooksService {
         // JPA будет видеть, что передается книга с таким же id,
         // поэтому будет не сохранять новую, а обновлять книгу с таким id
         booksRepository.save(updatedBook);
+        invalidationBus.publish(EntityChangedEvent.Type.BOOK, id);
     }
 
     // Удаление книги из БД
     @Transactional
     public void delete(int id) {
         booksRepository.deleteById(id);
+        invalidationBus.publish(EntityChangedEvent.Type.BOOK, id);
     }
 
-    // Join'им таблицы Book и Person и получаем человека, которому принадлежит книга с указанным id
-    public Person getBookOwner(int id) {
-
-        Optional<Book> book = booksRepository.findById(id);
-
-        return book.map(Book::getOwner).orElse(null);
+    // Чтение книги для показа. Одновременные запросы одной книги идут в БД один раз
+    // (owner грузится сразу - FetchType.EAGER, так что книгу можно отдавать другим потокам)
+    private Optional<Book> loadBook(int id) {
+        return bookLoads.load(id, () -> booksRepository.findById(id));
     }
 
     // Метод освобождения книги (вызывается, когда пользователь возвращает книгу в библиотеку)
@@ -86,8 +176,13 @@ public class BooksService {
     public void release(int id) {
         booksRepository.findById(id).ifPresent(
                 book -> {
+                    // запоминаем в истории, у кого была книга, пока не стерли владельца
+                    if (book.getOwner() != null)
+                        loanHistoryService.recordReturn(book, book.getOwner());
+
                     book.setOwner(null);
                     book.setTakenAt(null);
+                    invalidationBus.publish(EntityChangedEvent.Type.BOOK, id);
                 }
         );
     }
@@ -99,6 +194,8 @@ public class BooksService {
                 book -> {
                     book.setOwner(selectedPerson);
                     book.setTakenAt(new Date());
+                    loanHistoryService.recordCheckout(book, selectedPerson);
+                    invalidationBus.publish(EntityChangedEvent.Type.BOOK, id);
                 }
         );
     }
@@ -0,0 +1,240 @@
+package ru.smm.springcourse.services;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.smm.springcourse.dao.LoanEventDAO;
+import ru.smm.springcourse.models.Book;
+import ru.smm.springcourse.models.LoanEvent;
+import ru.smm.springcourse.models.Person;
+import ru.smm.springcourse.repositories.LoanEventsRepository;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// История выдачи книг.
+// Запись не замедляет assign/release: после commit событие кладется в очередь в памяти,
+// а фоновый поток пишет накопившиеся события в БД пачками. Поэтому в истории событие
+// появляется с задержкой до loan_history.flush_interval_ms.
+// При остановке приложения очередь дописывается до конца. При аварийном завершении процесса
+// события, которые еще не успели записаться, теряются
+@Service
+@Transactional(readOnly = true)
+@ManagedResource
+public class LoanHistoryService implements DisposableBean {
+
+    private static final Log log = LogFactory.getLog(LoanHistoryService.class);
+
+    // Сколько последних событий показывать в истории
+    private static final int HISTORY_LIMIT = 100;
+
+    private final LoanEventsRepository loanEventsRepository;
+    private final LoanEventDAO loanEventDAO;
+
+    private final BlockingQueue<LoanEvent> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private final List<LoanEvent> unwritten = new ArrayList<>(); // пачка, которую пишет writer
+    // destroy() не дождался writer'а; пачку unwritten забирает тот, кто первым выставит batchClaimed
+    private volatile boolean writerAbandoned;
+    private final AtomicBoolean batchClaimed = new AtomicBoolean();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writtenSynchronously = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Autowired
+    public LoanHistoryService(LoanEventsRepository loanEventsRepository, LoanEventDAO loanEventDAO,
+                              Environment environment) {
+        this.loanEventsRepository = loanEventsRepository;
+        this.loanEventDAO = loanEventDAO;
+        this.queue = new LinkedBlockingQueue<>(
+                environment.getProperty("loan_history.queue_capacity", Integer.class, 10000));
+        this.batchSize = environment.getProperty("loan_history.batch_size", Integer.class, 200);
+        this.flushIntervalMillis = environment.getProperty("loan_history.flush_interval_ms", Long.class, 500L);
+
+        this.writer = new Thread(this::writeLoop, "loan-history-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Книгу взяли (вызывается из BooksService.assign)
+    public void recordCheckout(Book book, Person person) {
+        record(new LoanEvent(book, person, LoanEvent.Type.CHECKOUT, new Date()));
+    }
+
+    // Книгу вернули (вызывается из BooksService.release)
+    public void recordReturn(Book book, Person person) {
+        record(new LoanEvent(book, person, LoanEvent.Type.RETURN, new Date()));
+    }
+
+    // Последние события по книге, новые сверху
+    public List<LoanEvent> getBookHistory(int bookId) {
+        return loanEventsRepository.findBookHistory(bookId, PageRequest.of(0, HISTORY_LIMIT));
+    }
+
+    // Последние события по человеку, новые сверху
+    public List<LoanEvent> getPersonHistory(int personId) {
+        return loanEventsRepository.findPersonHistory(personId, PageRequest.of(0, HISTORY_LIMIT));
+    }
+
+    // Остановка приложения
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+
+        List<LoanEvent> rest = new ArrayList<>();
+        if (writer.isAlive()) {
+            // Writer все еще пишет в БД, и его пачку трогать нельзя - он может как раз ее очищать.
+            // Если он все же закончит, то сам посчитает недописанное потерянным
+            writerAbandoned = true;
+            log.error("Loan history writer did not stop in 30 s, events of its current batch may be lost");
+        }
+
+        // Недописанная пачка (только если writer остановился) и все, что осталось в очереди, дописываются здесь
+        if (!writer.isAlive() && batchClaimed.compareAndSet(false, true))
+            rest.addAll(unwritten);
+        queue.drainTo(rest);
+        if (!rest.isEmpty())
+            writeOrDrop(rest);
+    }
+
+    @ManagedAttribute(description = "Events waiting to be written")
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @ManagedAttribute(description = "Events written to the database")
+    public long getWritten() {
+        return written.get();
+    }
+
+    @ManagedAttribute(description = "Events written by the caller because the queue was full")
+    public long getWrittenSynchronously() {
+        return writtenSynchronously.get();
+    }
+
+    @ManagedAttribute(description = "Events that could not be written")
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void record(LoanEvent event) {
+        // Событие попадает в историю только если операция с книгой действительно сохранилась
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(event);
+                }
+            });
+        else
+            enqueue(event);
+    }
+
+    private void enqueue(LoanEvent event) {
+        // Очередь переполнена (БД не успевает) - пишем сами, чтобы не потерять событие
+        if (!running || !queue.offer(event)) {
+            List<LoanEvent> single = new ArrayList<>();
+            single.add(event);
+            writeOrDrop(single);
+            writtenSynchronously.incrementAndGet();
+            return;
+        }
+
+        // Пока клали в очередь, началась остановка: destroy() мог уже разобрать очередь,
+        // и тогда наше событие никто не запишет. Разбираем ее сами (drainTo отдаст каждое событие кому-то одному)
+        if (!running) {
+            List<LoanEvent> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            if (!rest.isEmpty()) {
+                writeOrDrop(rest);
+                writtenSynchronously.addAndGet(rest.size());
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<LoanEvent> batch = unwritten;
+
+        try {
+            while (running) {
+                if (batch.isEmpty()) {
+                    LoanEvent first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    if (first == null)
+                        continue;
+
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+
+                if (tryWrite(batch))
+                    batch.clear();
+                else
+                    Thread.sleep(flushIntervalMillis); // БД недоступна - повторим ту же пачку позже
+            }
+        } catch (InterruptedException e) {
+            // остановка приложения: пачку и очередь допишет destroy()
+        } finally {
+            // destroy() нас не дождался - пачку уже никто не допишет
+            if (writerAbandoned && !batch.isEmpty() && batchClaimed.compareAndSet(false, true)) {
+                dropped.addAndGet(batch.size());
+                log.error("Dropping " + batch.size() + " loan events, writer was stopped while writing them");
+            }
+        }
+    }
+
+    private void writeOrDrop(List<LoanEvent> batch) {
+        if (!tryWrite(batch)) {
+            dropped.addAndGet(batch.size());
+            log.error("Dropping " + batch.size() + " loan events, database is unavailable");
+        }
+    }
+
+    // false - БД недоступна, пачку стоит повторить
+    private boolean tryWrite(List<LoanEvent> batch) {
+        try {
+            loanEventDAO.insertAll(batch);
+            written.addAndGet(batch.size());
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            // Скорее всего книгу успели удалить - пишем по одному, чтобы не потерять остальные события
+            for (LoanEvent event : batch) {
+                try {
+                    List<LoanEvent> single = new ArrayList<>();
+                    single.add(event);
+                    loanEventDAO.insertAll(single);
+                    written.incrementAndGet();
+                } catch (DataAccessException ex) {
+                    dropped.incrementAndGet();
+                    log.warn("Dropping loan event " + event.getType() + " for book " + event.getBook().getBook_id(), ex);
+                }
+            }
+            return true;
+        } catch (DataAccessException e) {
+            log.warn("Failed to write " + batch.size() + " loan events", e);
+            return false;
+        }
+    }
+}
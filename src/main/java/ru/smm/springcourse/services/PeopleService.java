@@ -2,10 +2,16 @@ package ru.smm.springcourse.services;
 
 import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import ru.smm.springcourse.cache.EntityChangedEvent;
+import ru.smm.springcourse.cache.InvalidationBus;
+import ru.smm.springcourse.cache.SingleFlight;
 import ru.smm.springcourse.models.Book;
 import ru.smm.springcourse.models.Person;
+import ru.smm.springcourse.models.PersonLoanSummary;
 import ru.smm.springcourse.repositories.PeopleRepository;
 
 import java.util.Collections;
@@ -17,16 +23,42 @@ import java.util.Optional;
 @Transactional(readOnly = true)
 public class PeopleService {
 
+    // Через сколько книга считается просроченной: 864000000 миллисекунд = 10 дней
+    private static final long OVERDUE_AFTER_MILLIS = 864000000;
+
     private final PeopleRepository peopleRepository;
+    private final InvalidationBus invalidationBus;
+    private final SingleFlight<String, List<Person>> peopleLoads;
 
     @Autowired
-    public PeopleService(PeopleRepository peopleRepository) {
+    public PeopleService(PeopleRepository peopleRepository, InvalidationBus invalidationBus,
+                         SingleFlight<String, List<Person>> peopleLoads) {
         this.peopleRepository = peopleRepository;
+        this.invalidationBus = invalidationBus;
+        this.peopleLoads = peopleLoads;
+
+        invalidationBus.subscribe(events -> {
+            if (events.stream().anyMatch(event -> event.getType() != EntityChangedEvent.Type.BOOK))
+                peopleLoads.forgetAll();
+        });
     }
 
-    // Вернет список всех людей
+    // Вернет список всех людей. Одновременные запросы делят одну загрузку,
+    // поэтому список и людей в нем менять нельзя (и books у них не загружены).
+    // Без транзакции сервиса: ждущие потоки не держат соединение, загрузка идет в транзакции репозитория
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<Person> findAll() {
-        return peopleRepository.findAll();
+        return peopleLoads.load("all", peopleRepository::findAll);
+    }
+
+    // Страница списка людей с количеством книг на руках и просроченных книг (для страницы со всеми людьми).
+    // Сводка считается только по людям этой страницы
+    public List<PersonLoanSummary> findPageWithLoanSummaries(int page, int peoplePerPage) {
+        List<Integer> ids = peopleRepository.findUserIds(PageRequest.of(page, peoplePerPage));
+        if (ids.isEmpty())
+            return Collections.emptyList();
+
+        return peopleRepository.findLoanSummaries(ids, new Date(System.currentTimeMillis() - OVERDUE_AFTER_MILLIS));
     }
 
     // вернет одного человека из БД по его id
@@ -41,6 +73,7 @@ public class PeopleService {
     @Transactional // тут будет больший приоритет над аннотацией класса
     public void save(Person person) {
         peopleRepository.save(person);
+        invalidationBus.publish(EntityChangedEvent.Type.PERSON, person.getUser_id());
     }
 
     // Обновляем данные человека в БД
@@ -51,12 +84,15 @@ public class PeopleService {
         // JPA будет видеть, что передается человек с таким же id,
         // поэтому будет не сохранять нового, а обновлять человека с таким id
         peopleRepository.save(updatedPerson);
+        invalidationBus.publish(EntityChangedEvent.Type.PERSON, id);
     }
 
     // Удаление человека из БД
     @Transactional
     public void delete(int id) {
         peopleRepository.deleteById(id);
+        // книги этого человека освободятся через ON DELETE SET NULL - подписчики узнают об этом по PERSON_DELETED
+        invalidationBus.publish(EntityChangedEvent.Type.PERSON_DELETED, id);
     }
 
     // Для валидации уникальности имени
@@ -77,8 +113,7 @@ public class PeopleService {
             // Проверка просрочил человек книгу или нет
             person.get().getBooks().forEach(book -> {
                 long diffInMillis = Math.abs(book.getTakenAt().getTime() - new Date().getTime());
-                // 864000000 миллисекунд = 10 дней
-                if (diffInMillis > 864000000)
+                if (diffInMillis > OVERDUE_AFTER_MILLIS)
                     book.setOverdue(true); // книга просрочена
             });
 
@@ -0,0 +1,132 @@
+package ru.smm.springcourse.util;
+
+import org.springframework.core.env.Environment;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+// Пускает к обработчикам с @ConcurrencyLimit не больше заданного числа запросов одновременно,
+// чтобы тяжелые страницы не забирали все соединения с БД у дешевых.
+// Кто не дождался места - получает 503 и Retry-After.
+// Для обработчиков, возвращающих Callable, место держится до конца async-запроса (до отрисовки страницы)
+@ManagedResource
+public class AdmissionControlInterceptor implements AsyncHandlerInterceptor {
+
+    // Под этим атрибутом в запросе лежит ограничение, место в котором этот запрос занял
+    private static final String PERMIT_ATTRIBUTE = AdmissionControlInterceptor.class.getName() + ".permit";
+
+    private final Environment environment;
+    private final boolean enabled;
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    public AdmissionControlInterceptor(Environment environment) {
+        this.environment = environment;
+        this.enabled = environment.getProperty("admission.enabled", Boolean.class, true);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // Повторный проход того же запроса после Callable - место уже занято
+        if (request.getDispatcherType() == DispatcherType.ASYNC && request.getAttribute(PERMIT_ATTRIBUTE) != null)
+            return true;
+
+        if (!enabled || !(handler instanceof HandlerMethod))
+            return true;
+
+        ConcurrencyLimit limit = ((HandlerMethod) handler).getMethodAnnotation(ConcurrencyLimit.class);
+        if (limit == null || hasAnyParameter(request, limit.unlessParams()))
+            return true;
+
+        Route route = routes.computeIfAbsent(limit.value(), name -> new Route(limit));
+
+        if (!route.permits.tryAcquire(route.queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            route.rejected.incrementAndGet();
+            response.setHeader("Retry-After", String.valueOf(route.retryAfterSeconds));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Сервер перегружен, попробуйте позже");
+            return false;
+        }
+
+        route.admitted.incrementAndGet();
+        request.setAttribute(PERMIT_ATTRIBUTE, route);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+                                Object handler, Exception ex) {
+        Route route = (Route) request.getAttribute(PERMIT_ATTRIBUTE);
+
+        if (route != null) {
+            request.removeAttribute(PERMIT_ATTRIBUTE);
+            route.permits.release();
+        }
+    }
+
+    @ManagedAttribute(description = "Requests let through, per limit")
+    public Map<String, Long> getAdmitted() {
+        return collect(route -> route.admitted.get());
+    }
+
+    @ManagedAttribute(description = "Requests answered with 503, per limit")
+    public Map<String, Long> getRejected() {
+        return collect(route -> route.rejected.get());
+    }
+
+    @ManagedAttribute(description = "Requests holding a slot right now, per limit")
+    public Map<String, Long> getInFlight() {
+        return collect(route -> route.maxPermits - route.permits.availablePermits());
+    }
+
+    @ManagedAttribute(description = "Requests waiting for a slot right now, per limit")
+    public Map<String, Long> getWaiting() {
+        return collect(route -> route.permits.getQueueLength());
+    }
+
+    private Map<String, Long> collect(ToLongFunction<Route> metric) {
+        Map<String, Long> values = new TreeMap<>();
+        routes.forEach((name, route) -> values.put(name, metric.applyAsLong(route)));
+        return values;
+    }
+
+    private static boolean hasAnyParameter(HttpServletRequest request, String[] names) {
+        for (String name : names) {
+            if (request.getParameter(name) != null)
+                return true;
+        }
+        return false;
+    }
+
+    private class Route {
+
+        private final int maxPermits;
+        private final Semaphore permits;
+        private final long queueTimeoutMillis;
+        private final int retryAfterSeconds;
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        private Route(ConcurrencyLimit limit) {
+            String prefix = "admission." + limit.value() + ".";
+
+            this.maxPermits = environment.getProperty(prefix + "permits", Integer.class, limit.permits());
+            this.permits = new Semaphore(maxPermits, true); // честная очередь - первым пришел, первым вошел
+            this.queueTimeoutMillis = environment.getProperty(prefix + "queue_timeout_ms", Long.class,
+                    limit.queueTimeoutMillis());
+            this.retryAfterSeconds = environment.getProperty(prefix + "retry_after_s", Integer.class,
+                    limit.retryAfterSeconds());
+        }
+    }
+}
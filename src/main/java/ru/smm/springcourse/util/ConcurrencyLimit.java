@@ -0,0 +1,27 @@
+package ru.smm.springcourse.util;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Ограничение на число одновременных запросов к дорогому обработчику контроллера.
+// Лишние запросы ждут свободного места не дольше queueTimeoutMillis, потом получают 503 с Retry-After.
+// Значения можно переопределить в library.properties: admission.<value>.permits, admission.<value>.queue_timeout_ms.
+// Обработчики с одинаковым value делят одно ограничение (см. AdmissionControlInterceptor)
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ConcurrencyLimit {
+
+    // Имя ограничения - так оно называется в настройках и в метриках
+    String value();
+
+    int permits() default 4;
+
+    long queueTimeoutMillis() default 500;
+
+    int retryAfterSeconds() default 2;
+
+    // Если в запросе есть любой из этих параметров, запрос дешевый и не ограничивается (например, постраничный)
+    String[] unlessParams() default {};
+}
@@ -0,0 +1,173 @@
+package ru.smm.springcourse.util;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Пул для обработчиков контроллеров, которые ходят в БД (они возвращают Callable).
+// Поток контейнера отпускается сразу, а запрос ждет в этом пуле: одновременно выполняется
+// не больше maxConcurrency обработчиков, ждать могут не больше queueCapacity, остальным - отказ
+// (TaskRejectedException, клиент получает 503 через OverloadExceptionHandler).
+// На JDK с виртуальными потоками каждый обработчик получает свой виртуальный поток,
+// иначе работает обычный пул из maxConcurrency потоков.
+// Если асинхронный режим выключен, Callable выполняет InlineCallableReturnValueHandler прямо
+// в потоке контейнера, а этот executor работает в режиме inline и для обработчиков не используется
+@ManagedResource
+public class DatabaseTaskExecutor implements AsyncTaskExecutor {
+
+    private final ExecutorService threads; // null - выполнять в вызывающем потоке
+    private final String mode;
+    private final Semaphore permits;
+    private final int queueCapacity;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private DatabaseTaskExecutor(ExecutorService threads, String mode, int maxConcurrency, int queueCapacity) {
+        this.threads = threads;
+        this.mode = mode;
+        this.permits = new Semaphore(maxConcurrency);
+        this.queueCapacity = queueCapacity;
+    }
+
+    // Обработчик выполняется в потоке контейнера (асинхронный режим выключен)
+    public static DatabaseTaskExecutor inline() {
+        return new DatabaseTaskExecutor(null, "inline", Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public static DatabaseTaskExecutor bounded(int maxConcurrency, int queueCapacity, boolean preferVirtualThreads) {
+        ExecutorService virtualThreads = preferVirtualThreads ? virtualThreadPerTaskExecutor() : null;
+        if (virtualThreads != null)
+            return new DatabaseTaskExecutor(virtualThreads, "virtual", maxConcurrency, queueCapacity);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+            Thread thread = new Thread(runnable, "db-handler-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new DatabaseTaskExecutor(pool, "pool", maxConcurrency, queueCapacity);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (threads == null) {
+            run(task);
+            return;
+        }
+
+        int waiting = queued.incrementAndGet();
+        if (waiting > queueCapacity) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new TaskRejectedException("Database handler queue is full (" + queueCapacity + ")");
+        }
+        maxQueued.accumulateAndGet(waiting, Math::max);
+
+        try {
+            threads.execute(() -> {
+                // Для пула ожидание тут нулевое (потоков столько же, сколько разрешений),
+                // а виртуальные потоки ждут здесь, не занимая потоков ОС
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    queued.decrementAndGet();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                queued.decrementAndGet();
+                try {
+                    run(task);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new TaskRejectedException("Database handler executor is shut down", e);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task, long startTimeout) {
+        execute(task);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        FutureTask<Object> future = new FutureTask<>(task, null);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(future);
+        return future;
+    }
+
+    public void shutdown() {
+        if (threads != null)
+            threads.shutdown();
+    }
+
+    @ManagedAttribute(description = "inline, pool or virtual")
+    public String getMode() {
+        return mode;
+    }
+
+    @ManagedAttribute(description = "Handlers waiting for a free slot")
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    @ManagedAttribute(description = "Highest queue depth seen")
+    public int getMaxQueueDepth() {
+        return maxQueued.get();
+    }
+
+    @ManagedAttribute(description = "Handlers running right now")
+    public int getActive() {
+        return active.get();
+    }
+
+    @ManagedAttribute(description = "Handlers finished")
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    @ManagedAttribute(description = "Handlers rejected because the queue was full")
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void run(Runnable task) {
+        active.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() появился в JDK 21, а собираемся мы под Java 8
+    private static ExecutorService virtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.smm.springcourse.util;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+
+// Ответ, который сжимается gzip'ом на лету.
+// Каждые chunkSize несжатых байт сжатые данные выталкиваются клиенту, не дожидаясь конца страницы.
+// Заголовок Content-Encoding и gzip-поток появляются только с первым записанным байтом: если отрисовка
+// упала раньше, контейнер отдаст свою страницу ошибки обычным, несжатым ответом
+public class GzipResponseWrapper extends HttpServletResponseWrapper {
+
+    private final int chunkSize;
+    private GzipServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    public GzipResponseWrapper(HttpServletResponse response, int chunkSize) {
+        super(response);
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null)
+            throw new IllegalStateException("getWriter() has already been called");
+
+        return gzipStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (outputStream != null)
+                throw new IllegalStateException("getOutputStream() has already been called");
+            writer = new PrintWriter(new OutputStreamWriter(gzipStream(), getCharacterEncoding()));
+        }
+
+        return writer;
+    }
+
+    // Длина несжатого ответа к сжатому отношения не имеет
+    @Override
+    public void setContentLength(int length) {
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null)
+            writer.flush();
+        if (outputStream != null)
+            outputStream.flush();
+        // Пока ничего не записано, ответ не фиксируем: иначе он уйдет без Content-Encoding
+        if (isStarted())
+            super.flushBuffer();
+    }
+
+    // Дописать конец gzip-потока, если в него хоть что-то записали. Вызывать после того, как весь ответ записан
+    public void finish() throws IOException {
+        if (writer != null)
+            writer.flush();
+        if (isStarted())
+            outputStream.gzip.finish();
+    }
+
+    private boolean isStarted() {
+        return outputStream != null && outputStream.gzip != null;
+    }
+
+    private GzipServletOutputStream gzipStream() {
+        if (outputStream == null)
+            outputStream = new GzipServletOutputStream();
+        return outputStream;
+    }
+
+    private class GzipServletOutputStream extends ServletOutputStream {
+
+        private GZIPOutputStream gzip; // создается при первой записи
+        private int sinceFlush;
+
+        @Override
+        public void write(int b) throws IOException {
+            gzip().write(b);
+            written(1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0)
+                return;
+            gzip().write(bytes, offset, length);
+            written(length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (gzip == null)
+                return;
+            gzip.flush();
+            sinceFlush = 0;
+        }
+
+        private GZIPOutputStream gzip() throws IOException {
+            if (gzip == null) {
+                setHeader("Content-Encoding", "gzip");
+                addHeader("Vary", "Accept-Encoding");
+                // syncFlush - flush() отдает все сжатое
+                gzip = new GZIPOutputStream(getResponse().getOutputStream(), 8192, true);
+            }
+            return gzip;
+        }
+
+        @Override
+        public boolean isReady() {
+            try {
+                return getResponse().getOutputStream().isReady();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            try {
+                getResponse().getOutputStream().setWriteListener(writeListener);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void written(int length) throws IOException {
+            sinceFlush += length;
+            if (sinceFlush >= chunkSize)
+                flush();
+        }
+    }
+}
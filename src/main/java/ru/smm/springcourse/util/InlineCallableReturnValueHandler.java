@@ -0,0 +1,38 @@
+package ru.smm.springcourse.util;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.ViewNameMethodReturnValueHandler;
+
+import java.util.concurrent.Callable;
+
+// Выполняет Callable, который вернул обработчик, сразу в потоке контейнера - без startAsync
+// и повторного (ASYNC) прохода запроса через DispatcherServlet.
+// Ставится перед стандартной обработкой Callable, когда асинхронный режим выключен (mvc.async.enabled=false).
+// Наши обработчики из Callable возвращают только имя представления
+public class InlineCallableReturnValueHandler implements HandlerMethodReturnValueHandler {
+
+    private final HandlerMethodReturnValueHandler viewNames = new ViewNameMethodReturnValueHandler();
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        return Callable.class.isAssignableFrom(returnType.getParameterType());
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType,
+                                  ModelAndViewContainer mavContainer, NativeWebRequest webRequest) throws Exception {
+        if (returnValue == null) {
+            mavContainer.setRequestHandled(true);
+            return;
+        }
+
+        Object result = ((Callable<?>) returnValue).call();
+        if (result != null && !(result instanceof CharSequence))
+            throw new IllegalStateException("Expected a view name from " + returnType.getMethod() + ", got " + result);
+
+        viewNames.handleReturnValue(result, returnType, mavContainer, webRequest);
+    }
+}
@@ -0,0 +1,51 @@
+package ru.smm.springcourse.util;
+
+import org.thymeleaf.spring5.view.ThymeleafView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+// Представление, которое отдает страницу по частям, пока она еще рисуется:
+// ответ уходит клиенту каждые chunkSize байт (а не целиком в конце), при поддержке клиентом - сжатым gzip'ом.
+// Вместе с курсором из BookDAO это дает ранний первый байт и постоянный расход памяти на больших списках
+public class StreamingThymeleafView extends ThymeleafView {
+
+    private int chunkSize = 16 * 1024;
+    private boolean compression = true;
+
+    @Override
+    protected void initApplicationContext() {
+        super.initApplicationContext();
+
+        StreamingViewSettings settings = obtainApplicationContext().getBean(StreamingViewSettings.class);
+        chunkSize = settings.getChunkSize();
+        compression = settings.isCompression();
+    }
+
+    @Override
+    public void render(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        // Контейнер отправляет очередную часть, как только заполнится буфер
+        response.setBufferSize(chunkSize);
+
+        if (!compression || !acceptsGzip(request)) {
+            super.render(model, request, response);
+            return;
+        }
+
+        GzipResponseWrapper gzipResponse = new GzipResponseWrapper(response, chunkSize);
+        try {
+            super.render(model, request, gzipResponse);
+        } finally {
+            // Конец gzip-потока дописываем и при ошибке отрисовки, если часть страницы уже ушла клиенту:
+            // без него клиент получит не обрезанную страницу, а ошибку распаковки.
+            // Если не ушло ничего, finish() ничего и не пишет - ошибку контейнер отдаст обычным ответом
+            gzipResponse.finish();
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+}
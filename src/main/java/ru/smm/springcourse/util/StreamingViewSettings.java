@@ -0,0 +1,36 @@
+package ru.smm.springcourse.util;
+
+// Настройки потоковой отрисовки (views.streaming.*). Читаются из library.properties один раз в SpringConfig
+// и передаются всем, кому нужны: резолверу представлений, BooksService, BookDAO и самому представлению
+public class StreamingViewSettings {
+
+    private final boolean enabled;
+    private final int fetchSize;
+    private final int chunkSize;
+    private final boolean compression;
+
+    public StreamingViewSettings(boolean enabled, int fetchSize, int chunkSize, boolean compression) {
+        this.enabled = enabled;
+        this.fetchSize = fetchSize;
+        this.chunkSize = chunkSize;
+        this.compression = compression;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Сколько строк курсор держит в памяти за раз
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    // Размер части ответа, уходящей клиенту, в байтах
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+}
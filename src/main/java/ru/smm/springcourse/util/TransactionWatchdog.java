@@ -0,0 +1,224 @@
+package ru.smm.springcourse.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Interceptor;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.type.Type;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Следит за транзакциями (их начинает и заканчивает WatchdogJpaTransactionManager):
+// сколько длилась, сколько SQL-запросов выполнила и сколько сущностей загрузила.
+// Пишет в лог со стеком вызова:
+//  - транзакции дольше slowMillis;
+//  - транзакции с подозрительно большим числом запросов или загруженных сущностей
+//    (обычно это ленивая загрузка в цикле, например Person.books или Book.owner для каждой строки);
+//  - транзакции, которые все еще открыты дольше leakMillis (держат соединение) - со стеком потока, где они сейчас;
+//  - SQL-запросы вне транзакции (не чаще раза в 10 секунд, с числом пропущенных с прошлого раза).
+// Счетчики видны по JMX
+@ManagedResource
+public class TransactionWatchdog {
+
+    private static final Log log = LogFactory.getLog(TransactionWatchdog.class);
+
+    // Запросы вне транзакции обычно идут потоком (одна страница без @Transactional) - не заваливаем ими лог
+    private static final long OUTSIDE_TRANSACTION_WARN_INTERVAL_MILLIS = 10000;
+
+    private final long slowMillis;
+    private final int maxStatements;
+    private final int maxEntities;
+    private final long leakMillis;
+
+    // Стек, потому что транзакция может приостановиться ради вложенной (REQUIRES_NEW)
+    private final ThreadLocal<Deque<TransactionStats>> current = ThreadLocal.withInitial(ArrayDeque::new);
+    private final Set<TransactionStats> active = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService leakChecker;
+
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong slowTransactions = new AtomicLong();
+    private final AtomicLong loadStorms = new AtomicLong();
+    private final AtomicLong leakSuspects = new AtomicLong();
+    private final AtomicLong statementsOutsideTransaction = new AtomicLong();
+    private final AtomicLong maxDurationMillis = new AtomicLong();
+
+    private final AtomicLong nextOutsideTransactionWarning = new AtomicLong();
+    private final AtomicLong reportedStatementsOutsideTransaction = new AtomicLong();
+
+    public TransactionWatchdog(long slowMillis, int maxStatements, int maxEntities, long leakMillis) {
+        this.slowMillis = slowMillis;
+        this.maxStatements = maxStatements;
+        this.maxEntities = maxEntities;
+        this.leakMillis = leakMillis;
+
+        this.leakChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transaction-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkInterval = Math.max(leakMillis / 2, 1000);
+        this.leakChecker.scheduleWithFixedDelay(this::checkLeaks, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    // Для hibernate.session_factory.statement_inspector: считает каждый SQL-запрос
+    public StatementInspector statementInspector() {
+        return sql -> {
+            TransactionStats stats = current.get().peek();
+
+            if (stats != null)
+                stats.statements++;
+            else
+                warnOutsideTransaction(sql);
+
+            return sql;
+        };
+    }
+
+    // Для hibernate.session_factory.interceptor: считает каждую загруженную сущность
+    public Interceptor interceptor() {
+        return new EntityLoadCounter();
+    }
+
+    void begin(String name) {
+        TransactionStats stats = new TransactionStats(name);
+        current.get().push(stats);
+        active.add(stats);
+        transactions.incrementAndGet();
+    }
+
+    void end() {
+        TransactionStats stats = current.get().poll();
+        if (stats == null)
+            return;
+
+        active.remove(stats);
+
+        long duration = System.currentTimeMillis() - stats.startedAt;
+        maxDurationMillis.accumulateAndGet(duration, Math::max);
+
+        if (duration > slowMillis) {
+            slowTransactions.incrementAndGet();
+            log.warn("Slow transaction " + stats.describe(duration), new Throwable("Transaction completed here"));
+        }
+
+        if (stats.statements > maxStatements || stats.entities > maxEntities) {
+            loadStorms.incrementAndGet();
+            log.warn("Too many loads in transaction " + stats.describe(duration)
+                    + " - lazy loading in a loop?", new Throwable("Transaction completed here"));
+        }
+    }
+
+    public void shutdown() {
+        leakChecker.shutdown();
+    }
+
+    @ManagedAttribute(description = "Transactions started")
+    public long getTransactions() {
+        return transactions.get();
+    }
+
+    @ManagedAttribute(description = "Transactions open right now")
+    public int getActiveTransactions() {
+        return active.size();
+    }
+
+    @ManagedAttribute(description = "Transactions longer than the slow threshold")
+    public long getSlowTransactions() {
+        return slowTransactions.get();
+    }
+
+    @ManagedAttribute(description = "Transactions over the statement or entity threshold")
+    public long getLoadStorms() {
+        return loadStorms.get();
+    }
+
+    @ManagedAttribute(description = "Transactions reported as open for too long")
+    public long getLeakSuspects() {
+        return leakSuspects.get();
+    }
+
+    @ManagedAttribute(description = "SQL statements executed outside of a transaction")
+    public long getStatementsOutsideTransaction() {
+        return statementsOutsideTransaction.get();
+    }
+
+    @ManagedAttribute(description = "Longest transaction seen, ms")
+    public long getMaxDurationMillis() {
+        return maxDurationMillis.get();
+    }
+
+    private void warnOutsideTransaction(String sql) {
+        long count = statementsOutsideTransaction.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long next = nextOutsideTransactionWarning.get();
+
+        // Пишет только один поток - тот, кто первым сдвинул время следующего предупреждения
+        if (now < next || !nextOutsideTransactionWarning.compareAndSet(next, now + OUTSIDE_TRANSACTION_WARN_INTERVAL_MILLIS))
+            return;
+
+        long skipped = count - 1 - reportedStatementsOutsideTransaction.getAndSet(count);
+        log.warn("SQL outside of a transaction" + (skipped > 0 ? " (and " + skipped + " more since the last report)" : "")
+                + ": " + sql, new Throwable("Statement issued here"));
+    }
+
+    // О каждой зависшей транзакции сообщаем один раз
+    private void checkLeaks() {
+        long now = System.currentTimeMillis();
+
+        for (TransactionStats stats : active) {
+            if (!stats.reportedAsLeak && now - stats.startedAt > leakMillis) {
+                stats.reportedAsLeak = true;
+                leakSuspects.incrementAndGet();
+
+                Throwable where = new Throwable("Thread " + stats.thread.getName() + " is here now");
+                where.setStackTrace(stats.thread.getStackTrace());
+                log.warn("Transaction still open " + stats.describe(now - stats.startedAt), where);
+            }
+        }
+    }
+
+    private class EntityLoadCounter extends EmptyInterceptor {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+            TransactionStats stats = current.get().peek();
+            if (stats != null)
+                stats.entities++;
+            return false;
+        }
+    }
+
+    private static class TransactionStats {
+
+        private final String name;
+        private final Thread thread = Thread.currentThread();
+        private final long startedAt = System.currentTimeMillis();
+
+        // Меняются только потоком транзакции, остальные читают их лишь для лога
+        private int statements;
+        private int entities;
+        private volatile boolean reportedAsLeak;
+
+        private TransactionStats(String name) {
+            this.name = name;
+        }
+
+        private String describe(long duration) {
+            return (name != null ? name : "<unnamed>") + ": " + duration + " ms, "
+                    + statements + " statements, " + entities + " entities loaded";
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ru.smm.springcourse.util;
+
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+// JpaTransactionManager, который сообщает TransactionWatchdog о начале и конце каждой транзакции
+public class WatchdogJpaTransactionManager extends JpaTransactionManager {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionWatchdog watchdog;
+
+    public WatchdogJpaTransactionManager(TransactionWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        super.doBegin(transaction, definition);
+        // Имя транзакции - это метод, на котором стоит @Transactional (например, BooksService.findOne)
+        watchdog.begin(definition.getName());
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        try {
+            super.doCleanupAfterCompletion(transaction);
+        } finally {
+            watchdog.end();
+        }
+    }
+}
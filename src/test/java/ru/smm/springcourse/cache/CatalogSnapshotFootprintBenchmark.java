@@ -0,0 +1,40 @@
+package ru.smm.springcourse.cache;
+
+import junit.framework.TestCase;
+
+// Замер реального расхода памяти снимком на 1 млн книг (а не только формулы getEstimatedBytes()).
+// Не входит в обычный прогон тестов: результат зависит от JVM, сборщика мусора и сжатых ссылок.
+// Запуск: mvn test -Pbenchmarks -Dtest=CatalogSnapshotFootprintBenchmark
+public class CatalogSnapshotFootprintBenchmark extends TestCase {
+
+    private static final int BOOKS = 1000000;
+
+    public void testMeasuredFootprint() {
+        long baseline = usedHeap();
+
+        CatalogSnapshot snapshot = new CatalogSnapshot();
+        for (int id = 1; id <= BOOKS; id++)
+            snapshot.put(id, "Кириллическое название книги " + (id % 10), "Автор " + (id % 1000), 1800 + id % 220, 0);
+        snapshot.sortedByYear(); // порядок byYear тоже входит в снимок
+
+        long measured = usedHeap() - baseline;
+        long estimated = snapshot.getEstimatedBytes();
+
+        System.out.printf("CatalogSnapshot, %d books: measured %.1f MB, estimated %.1f MB (%+.1f%%)%n",
+                BOOKS, measured / 1e6, estimated / 1e6, 100.0 * (estimated - measured) / measured);
+        assertEquals(BOOKS, snapshot.getBooks());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
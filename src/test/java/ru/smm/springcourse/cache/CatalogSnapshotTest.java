@@ -0,0 +1,166 @@
+package ru.smm.springcourse.cache;
+
+import junit.framework.TestCase;
+import ru.smm.springcourse.models.Book;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CatalogSnapshotTest extends TestCase {
+
+    private CatalogSnapshot snapshot;
+
+    @Override
+    protected void setUp() {
+        snapshot = new CatalogSnapshot();
+    }
+
+    public void testBooksAreListedByIdAndByYear() {
+        snapshot.put(1, "Война и мир", "Толстой", 1869, 0);
+        snapshot.put(2, "Идиот", "Достоевский", 1869, 5);
+        snapshot.put(3, "Нос", "Гоголь", 1836, 0);
+
+        assertEquals(ids(1, 2, 3), idsOf(snapshot.filter(Integer.MIN_VALUE, Integer.MAX_VALUE, false, false,
+                0, Integer.MAX_VALUE)));
+        assertEquals(ids(3, 1, 2), idsOf(snapshot.sortedByYear()));
+
+        Book idiot = snapshot.sortedByYear().get(2);
+        assertEquals("Идиот", idiot.getTitle());
+        assertEquals("Достоевский", idiot.getAuthor());
+        assertEquals(5, idiot.getOwner().getUser_id());
+    }
+
+    public void testOutOfOrderInsertKeepsSlotsSortedById() {
+        snapshot.put(10, "Десять", "Автор", 2000, 0);
+        snapshot.put(30, "Тридцать", "Автор", 1990, 0);
+        snapshot.put(20, "Двадцать", "Автор", 1995, 0);
+        snapshot.remove(30);
+        snapshot.put(5, "Пять", "Автор", 1980, 0);
+
+        assertEquals(ids(5, 10, 20), idsOf(snapshot.filter(Integer.MIN_VALUE, Integer.MAX_VALUE, false, false,
+                0, Integer.MAX_VALUE)));
+        assertEquals(ids(5, 20, 10), idsOf(snapshot.sortedByYear()));
+        assertEquals("Двадцать", snapshot.sortedByYear().get(1).getTitle());
+    }
+
+    public void testUpdateReplacesBookInPlace() {
+        snapshot.put(1, "Старое", "Автор", 2000, 0);
+        snapshot.put(1, "Новое", "Автор", 1900, 7);
+
+        List<Book> books = snapshot.sortedByYear();
+        assertEquals(1, books.size());
+        assertEquals("Новое", books.get(0).getTitle());
+        assertEquals(0, snapshot.count(Integer.MIN_VALUE, Integer.MAX_VALUE, true));
+    }
+
+    public void testFiltersAndCountsByYearAndAvailability() {
+        snapshot.put(1, "А", "Автор", 1900, 0);
+        snapshot.put(2, "Б", "Автор", 1950, 3);
+        snapshot.put(3, "В", "Автор", 1950, 0);
+        snapshot.put(4, "Г", "Автор", 2000, 0);
+
+        assertEquals(2, snapshot.count(1950, 1950, false));
+        assertEquals(1, snapshot.count(1950, 1950, true));
+        assertEquals(3, snapshot.count(1901, Integer.MAX_VALUE, false));
+        assertEquals(ids(3, 4), idsOf(snapshot.filter(1920, 2020, true, true, 0, Integer.MAX_VALUE)));
+        assertEquals(ids(3), idsOf(snapshot.filter(Integer.MIN_VALUE, Integer.MAX_VALUE, false, true, 2, 1)));
+    }
+
+    public void testExtremeYearsAreSorted() {
+        snapshot.put(1, "А", "Автор", Integer.MAX_VALUE, 0);
+        snapshot.put(2, "Б", "Автор", Integer.MIN_VALUE, 0);
+        snapshot.put(3, "В", "Автор", -500, 0);
+        snapshot.put(4, "Г", "Автор", 0, 0);
+
+        assertEquals(ids(2, 3, 4, 1), idsOf(snapshot.sortedByYear()));
+        assertEquals(1, snapshot.count(Integer.MAX_VALUE, Integer.MAX_VALUE, false));
+    }
+
+    public void testDeletedSlotsAreCompacted() {
+        for (int id = 1; id <= 100; id++)
+            snapshot.put(id, "Книга " + id, "Автор " + (id % 10), 1900 + id, 0);
+
+        for (int id = 1; id <= 25; id++)
+            snapshot.remove(id);
+        assertEquals(75, snapshot.getBooks());
+        assertEquals(100, snapshot.usedSlots()); // ровно четверть удалена - еще не сжимаем
+
+        snapshot.remove(26);
+        assertEquals(74, snapshot.getBooks());
+        assertEquals(74, snapshot.usedSlots());
+
+        List<Book> books = snapshot.sortedByYear();
+        assertEquals(74, books.size());
+        assertEquals(27, books.get(0).getBook_id());
+        assertEquals("Книга 27", books.get(0).getTitle());
+        assertEquals("Книга 100", books.get(73).getTitle());
+
+        // после сжатия вставка и удаление работают как обычно
+        snapshot.put(26, "Снова", "Автор", 1800, 0);
+        snapshot.remove(100);
+        assertEquals(26, snapshot.sortedByYear().get(0).getBook_id());
+        assertEquals(74, snapshot.getBooks());
+    }
+
+    public void testRewrittenTitlesAreCompacted() {
+        snapshot.put(1, "Название", "Автор", 2000, 0);
+        long before = snapshot.getEstimatedBytes();
+
+        for (int i = 0; i < 1000; i++)
+            snapshot.put(1, "Название " + i, "Автор", 2000, 0);
+
+        assertEquals("Название 999", snapshot.sortedByYear().get(0).getTitle());
+        assertTrue(snapshot.getEstimatedBytes() - before < 100);
+    }
+
+    public void testEstimatedBytesOfEmptySnapshot() {
+        // 6 пустых массивов по 16 байт заголовка, пустая куча названий (16) и BitSet на 64 бита (8)
+        assertEquals(6 * 16 + 16 + 8, snapshot.getEstimatedBytes());
+    }
+
+    public void testEstimatedBytesCountCapacityTitlesAuthorsAndYearOrder() {
+        snapshot.put(1, "abc", "A", 2000, 0);
+
+        // массивы выросли сразу до 16 слотов, в куче 3 байта названия, автор - 80 байт + 2 на символ
+        long arrays = 6 * (16 + 4 * 16);
+        assertEquals(arrays + 16 + 3 + 8 + 82, snapshot.getEstimatedBytes());
+
+        // порядок по году добавляет свой int[] на каждую живую книгу
+        snapshot.sortedByYear();
+        assertEquals(arrays + 16 + 3 + 8 + 82 + 16 + 4, snapshot.getEstimatedBytes());
+    }
+
+    public void testEstimatedBytesFollowArrayGrowth() {
+        for (int id = 1; id <= 17; id++)
+            snapshot.put(id, "t", "A", 2000, 0);
+
+        // 17-я книга не влезла в 16 слотов - массивы выросли в 1.5 раза, до 24 слотов.
+        // Куча названий растет так же: 1, 2, 3, 4, 6, 9, 13, 19 байт
+        assertEquals(6 * (16 + 4 * 24) + 16 + 19 + 8 + 82, snapshot.getEstimatedBytes());
+    }
+
+    public void testSharedAuthorIsCountedOnce() {
+        snapshot.put(1, "t", "Автор", 2000, 0);
+        long oneAuthor = snapshot.getEstimatedBytes();
+
+        snapshot.put(2, "t", "Автор", 2000, 0);
+        assertEquals(oneAuthor + 1, snapshot.getEstimatedBytes()); // только байт названия в куче
+
+        snapshot.put(3, "t", "Другой", 2000, 0);
+        assertTrue(snapshot.getEstimatedBytes() >= oneAuthor + 1 + 80 + 2 * "Другой".length());
+    }
+
+    private static List<Integer> ids(Integer... ids) {
+        List<Integer> result = new ArrayList<>();
+        for (Integer id : ids)
+            result.add(id);
+        return result;
+    }
+
+    private static List<Integer> idsOf(List<Book> books) {
+        List<Integer> result = new ArrayList<>();
+        for (Book book : books)
+            result.add(book.getBook_id());
+        return result;
+    }
+}
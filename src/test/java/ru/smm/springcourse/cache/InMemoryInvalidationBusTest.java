@@ -0,0 +1,179 @@
+package ru.smm.springcourse.cache;
+
+import junit.framework.TestCase;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class InMemoryInvalidationBusTest extends TestCase {
+
+    // Интервал больше времени теста: пачки другим узлам уходят только при shutdown(), тест не зависит от таймингов
+    private static final long NEVER = 60000;
+
+    private InMemoryInvalidationBus bus;
+    private InMemoryInvalidationBus otherNode;
+    private RecordingListener received;
+    private RecordingListener receivedByOther;
+
+    @Override
+    protected void setUp() {
+        bus = new InMemoryInvalidationBus(NEVER, 1000);
+        otherNode = new InMemoryInvalidationBus(NEVER, 1000);
+        bus.connect(otherNode);
+
+        received = new RecordingListener();
+        receivedByOther = new RecordingListener();
+        bus.subscribe(received);
+        otherNode.subscribe(receivedByOther);
+    }
+
+    @Override
+    protected void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.clearSynchronization();
+        bus.shutdown();
+        otherNode.shutdown();
+    }
+
+    public void testPublishOutsideTransactionIsDeliveredLocallyAtOnce() {
+        bus.publish(EntityChangedEvent.Type.BOOK, 1);
+
+        assertEquals(1, received.batches.size());
+        assertTrue(received.batches.get(0).contains(new EntityChangedEvent(EntityChangedEvent.Type.BOOK, 1)));
+        assertTrue(receivedByOther.batches.isEmpty()); // другим узлам - со следующей пачкой
+    }
+
+    public void testEventsForOtherNodesAreCoalesced() {
+        bus.publish(EntityChangedEvent.Type.BOOK, 1);
+        bus.publish(EntityChangedEvent.Type.BOOK, 1);
+        bus.publish(EntityChangedEvent.Type.PERSON, 1);
+
+        bus.shutdown();
+
+        assertEquals(1, receivedByOther.batches.size());
+        assertEquals(2, receivedByOther.batches.get(0).size());
+    }
+
+    public void testEventsInTransactionArePublishedOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        bus.publish(EntityChangedEvent.Type.BOOK, 7);
+        bus.publish(EntityChangedEvent.Type.BOOK, 7);
+
+        // до commit событие не уходит даже при отправке накопленного
+        bus.shutdown();
+        assertTrue(received.batches.isEmpty());
+        assertTrue(receivedByOther.batches.isEmpty());
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+        TransactionSynchronizationManager.clearSynchronization();
+
+        // свои подписчики - сразу после commit, одной схлопнутой пачкой
+        assertEquals(1, received.batches.size());
+        assertEquals(1, received.batches.get(0).size());
+
+        bus.shutdown();
+        assertEquals(1, receivedByOther.batches.size());
+        assertEquals(1, received.batches.size()); // своим второй раз не приходит
+    }
+
+    public void testEventsInRolledBackTransactionAreDropped() {
+        TransactionSynchronizationManager.initSynchronization();
+        bus.publish(EntityChangedEvent.Type.BOOK, 7);
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations,
+                TransactionSynchronization.STATUS_ROLLED_BACK);
+        TransactionSynchronizationManager.clearSynchronization();
+        bus.shutdown();
+
+        assertTrue(received.batches.isEmpty());
+        assertTrue(receivedByOther.batches.isEmpty());
+    }
+
+    public void testConnectedPeersReceiveEachOthersEvents() {
+        bus.publish(EntityChangedEvent.Type.BOOK, 3);
+        bus.shutdown();
+        otherNode.publish(EntityChangedEvent.Type.PERSON, 4);
+        otherNode.shutdown();
+
+        Set<EntityChangedEvent> expected = new HashSet<>();
+        expected.add(new EntityChangedEvent(EntityChangedEvent.Type.BOOK, 3));
+        expected.add(new EntityChangedEvent(EntityChangedEvent.Type.PERSON, 4));
+        assertEquals(expected, received.all());
+        assertEquals(expected, receivedByOther.all());
+    }
+
+    public void testFullBatchIsSentWithoutWaitingForInterval() throws InterruptedException {
+        InMemoryInvalidationBus smallBatches = new InMemoryInvalidationBus(NEVER, 2);
+        InMemoryInvalidationBus peer = new InMemoryInvalidationBus(NEVER, 2);
+        RecordingListener listener = new RecordingListener();
+        peer.subscribe(listener);
+        smallBatches.connect(peer);
+
+        smallBatches.publish(EntityChangedEvent.Type.BOOK, 1);
+        smallBatches.publish(EntityChangedEvent.Type.BOOK, 2);
+
+        for (int i = 0; i < 100 && listener.batches.isEmpty(); i++)
+            Thread.sleep(10);
+        smallBatches.shutdown();
+        peer.shutdown();
+
+        assertEquals(1, listener.batches.size());
+        assertEquals(2, listener.batches.get(0).size());
+    }
+
+    public void testFailedSendIsRetriedWithNextBatch() {
+        FlakyBus flaky = new FlakyBus();
+        flaky.failures = 1;
+
+        flaky.publish(EntityChangedEvent.Type.BOOK, 1);
+        flaky.shutdown(); // первая отправка падает
+        assertTrue(flaky.sent.isEmpty());
+
+        flaky.publish(EntityChangedEvent.Type.BOOK, 1);
+        flaky.publish(EntityChangedEvent.Type.BOOK, 2);
+        flaky.shutdown();
+
+        assertEquals(1, flaky.sent.size());
+        assertEquals(2, flaky.sent.get(0).size());
+    }
+
+    private static class FlakyBus extends AbstractInvalidationBus {
+
+        private final List<Set<EntityChangedEvent>> sent = new CopyOnWriteArrayList<>();
+        private int failures;
+
+        private FlakyBus() {
+            super(NEVER, 1000);
+        }
+
+        @Override
+        protected void send(Set<EntityChangedEvent> batch) {
+            if (failures-- > 0)
+                throw new IllegalStateException("pg_notify failed");
+            sent.add(new HashSet<>(batch));
+        }
+    }
+
+    private static class RecordingListener implements InvalidationListener {
+
+        private final List<Set<EntityChangedEvent>> batches = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onInvalidate(Set<EntityChangedEvent> events) {
+            batches.add(new HashSet<>(events));
+        }
+
+        private Set<EntityChangedEvent> all() {
+            Set<EntityChangedEvent> events = new HashSet<>();
+            batches.forEach(events::addAll);
+            return events;
+        }
+    }
+}
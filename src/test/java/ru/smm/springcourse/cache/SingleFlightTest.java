@@ -0,0 +1,145 @@
+package ru.smm.springcourse.cache;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest extends TestCase {
+
+    private ExecutorService threads;
+
+    @Override
+    protected void setUp() {
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() {
+        threads.shutdownNow();
+    }
+
+    public void testConcurrentCallsShareOneLoad() throws Exception {
+        SingleFlight<Integer, String> flight = new SingleFlight<>(5000);
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loaderCalls = new AtomicInteger();
+
+        Future<String> leader = threads.submit(() -> flight.load(1, () -> {
+            loaderCalls.incrementAndGet();
+            leaderStarted.countDown();
+            await(release);
+            return "book";
+        }));
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+        Future<String> waiter = threads.submit(() -> flight.load(1, () -> {
+            loaderCalls.incrementAndGet();
+            return "second load";
+        }));
+        waitUntil(() -> !waiter.isDone() && flight.getInFlight() == 1);
+        release.countDown();
+
+        assertEquals("book", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("book", waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loaderCalls.get());
+        assertEquals(1, flight.getLoads());
+        assertEquals(1, flight.getDeduplicatedCalls());
+        assertEquals(0, flight.getInFlight());
+    }
+
+    public void testSequentialCallsLoadAgain() {
+        SingleFlight<Integer, Integer> flight = new SingleFlight<>(5000);
+        AtomicInteger loaderCalls = new AtomicInteger();
+
+        flight.load(1, loaderCalls::incrementAndGet);
+        flight.load(1, loaderCalls::incrementAndGet);
+
+        assertEquals(2, loaderCalls.get());
+        assertEquals(0, flight.getDeduplicatedCalls());
+    }
+
+    public void testWaiterLoadsItselfAfterTimeout() throws Exception {
+        SingleFlight<Integer, String> flight = new SingleFlight<>(50);
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = threads.submit(() -> flight.load(1, () -> {
+            leaderStarted.countDown();
+            await(release);
+            return "slow";
+        }));
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+        assertEquals("own", flight.load(1, () -> "own"));
+        assertEquals(1, flight.getTimeouts());
+
+        release.countDown();
+        assertEquals("slow", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testLoaderFailureIsRethrownToWaiters() throws Exception {
+        SingleFlight<Integer, String> flight = new SingleFlight<>(5000);
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = threads.submit(() -> flight.load(1, () -> {
+            leaderStarted.countDown();
+            await(release);
+            throw new IllegalArgumentException("no such book");
+        }));
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+        Future<String> waiter = threads.submit(() -> flight.load(1, () -> "should not load"));
+        waitUntil(() -> !waiter.isDone());
+        release.countDown();
+
+        assertFailedWith(IllegalArgumentException.class, leader);
+        assertFailedWith(IllegalArgumentException.class, waiter);
+        assertEquals(0, flight.getInFlight());
+    }
+
+    public void testForgetLetsNextCallStartNewLoad() throws Exception {
+        SingleFlight<Integer, String> flight = new SingleFlight<>(5000);
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = threads.submit(() -> flight.load(1, () -> {
+            leaderStarted.countDown();
+            await(release);
+            return "stale";
+        }));
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+        flight.forget(1);
+        assertEquals("fresh", flight.load(1, () -> "fresh"));
+
+        release.countDown();
+        assertEquals("stale", leader.get(5, TimeUnit.SECONDS));
+        assertEquals(0, flight.getDeduplicatedCalls());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Ждущий поток не дает сигнала, что он уже встал на ожидание: даем ему время дойти до get()
+    private static void waitUntil(Callable<Boolean> condition) throws Exception {
+        for (int i = 0; i < 100 && !condition.call(); i++)
+            Thread.sleep(10);
+        Thread.sleep(100);
+    }
+
+    private static void assertFailedWith(Class<? extends Throwable> expected, Future<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected " + expected.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), expected.isInstance(e.getCause()));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.smm.springcourse.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Сравнение: обработчики, которые ходят в БД, выполняются в потоках контейнера или в DatabaseTaskExecutor.
+// Контейнер - пул из CONTAINER_THREADS потоков, БД - DB_CONNECTIONS соединений по DB_LATENCY_MS на запрос.
+// Одновременно приходят DB_REQUESTS тяжелых запросов и CHEAP_REQUESTS легких (без БД).
+// Не входит в обычный прогон тестов. Запуск: mvn test -Pbenchmarks -Dtest=DatabaseTaskExecutorBenchmark
+public class DatabaseTaskExecutorBenchmark extends TestCase {
+
+    private static final int CONTAINER_THREADS = 20;
+    private static final int DB_CONNECTIONS = 10;
+    private static final long DB_LATENCY_MS = 20;
+    private static final int DB_REQUESTS = 400;
+    private static final int CHEAP_REQUESTS = 400;
+
+    public void testContainerThreadsVersusDatabaseExecutor() throws Exception {
+        run(false); // прогрев
+        run(true);
+
+        Result inline = run(false);
+        Result offloaded = run(true);
+
+        System.out.println("Container threads only: " + inline);
+        System.out.println("DatabaseTaskExecutor:   " + offloaded);
+    }
+
+    private Result run(boolean offload) throws InterruptedException {
+        ExecutorService container = Executors.newFixedThreadPool(CONTAINER_THREADS);
+        DatabaseTaskExecutor databaseExecutor = offload
+                ? DatabaseTaskExecutor.bounded(DB_CONNECTIONS, DB_REQUESTS, false)
+                : null;
+        Semaphore connections = new Semaphore(DB_CONNECTIONS);
+        CountDownLatch done = new CountDownLatch(DB_REQUESTS + CHEAP_REQUESTS);
+        long[] cheapLatencies = new long[CHEAP_REQUESTS];
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < Math.max(DB_REQUESTS, CHEAP_REQUESTS); i++) {
+            if (i < DB_REQUESTS) {
+                Runnable handler = () -> {
+                    query(connections);
+                    done.countDown();
+                };
+                // С executor'ом поток контейнера только передает обработчик дальше и сразу свободен
+                container.execute(offload ? () -> databaseExecutor.execute(handler) : handler);
+            }
+            if (i < CHEAP_REQUESTS) {
+                int request = i;
+                long submittedAt = System.nanoTime();
+                container.execute(() -> {
+                    cheapLatencies[request] = System.nanoTime() - submittedAt;
+                    done.countDown();
+                });
+            }
+        }
+
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - startedAt;
+
+        container.shutdown();
+        if (databaseExecutor != null)
+            databaseExecutor.shutdown();
+
+        Arrays.sort(cheapLatencies);
+        return new Result(elapsed, cheapLatencies);
+    }
+
+    private static void query(Semaphore connections) {
+        try {
+            connections.acquire();
+            try {
+                Thread.sleep(DB_LATENCY_MS);
+            } finally {
+                connections.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Result {
+
+        private final long elapsedNanos;
+        private final long[] sortedCheapLatencies;
+
+        private Result(long elapsedNanos, long[] sortedCheapLatencies) {
+            this.elapsedNanos = elapsedNanos;
+            this.sortedCheapLatencies = sortedCheapLatencies;
+        }
+
+        private double millis(double percentile) {
+            int index = (int) Math.min(sortedCheapLatencies.length - 1, percentile * sortedCheapLatencies.length);
+            return sortedCheapLatencies[index] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%.0f DB requests/s, light requests p50 %.1f ms, p99 %.1f ms",
+                    DB_REQUESTS / seconds, millis(0.5), millis(0.99));
+        }
+    }
+}
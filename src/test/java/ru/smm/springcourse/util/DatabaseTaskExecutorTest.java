@@ -0,0 +1,108 @@
+package ru.smm.springcourse.util;
+
+import junit.framework.TestCase;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DatabaseTaskExecutorTest extends TestCase {
+
+    private DatabaseTaskExecutor executor;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    protected void tearDown() {
+        release.countDown();
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    public void testInlineRunsInCallerThread() {
+        executor = DatabaseTaskExecutor.inline();
+        AtomicReference<Thread> ranIn = new AtomicReference<>();
+
+        executor.execute(() -> ranIn.set(Thread.currentThread()));
+
+        assertSame(Thread.currentThread(), ranIn.get());
+        assertEquals("inline", executor.getMode());
+        assertEquals(1, executor.getCompleted());
+    }
+
+    public void testRunsAtMostMaxConcurrencyAndQueuesTheRest() throws Exception {
+        executor = DatabaseTaskExecutor.bounded(2, 10, false);
+
+        for (int i = 0; i < 5; i++)
+            executor.execute(this::blockUntilReleased);
+        waitUntil(() -> executor.getActive() == 2);
+
+        assertEquals("pool", executor.getMode());
+        assertEquals(2, executor.getActive());
+        assertEquals(3, executor.getQueueDepth());
+        assertTrue(executor.getMaxQueueDepth() >= 3); // первые задачи тоже успевают постоять в очереди
+
+        release.countDown();
+        waitUntil(() -> executor.getCompleted() == 5);
+        assertEquals(0, executor.getActive());
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(0, executor.getRejected());
+    }
+
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        executor = DatabaseTaskExecutor.bounded(1, 2, false);
+
+        executor.execute(this::blockUntilReleased);
+        waitUntil(() -> executor.getActive() == 1);
+        executor.execute(this::blockUntilReleased);
+        executor.execute(this::blockUntilReleased);
+
+        try {
+            executor.execute(this::blockUntilReleased);
+            fail("Expected TaskRejectedException");
+        } catch (TaskRejectedException expected) {
+        }
+
+        assertEquals(1, executor.getRejected());
+        assertEquals(2, executor.getQueueDepth()); // отказ не занимает место в очереди
+
+        release.countDown();
+        waitUntil(() -> executor.getCompleted() == 3);
+    }
+
+    public void testRejectsAfterShutdown() {
+        executor = DatabaseTaskExecutor.bounded(1, 2, false);
+        executor.shutdown();
+
+        try {
+            executor.execute(() -> {
+            });
+            fail("Expected TaskRejectedException");
+        } catch (TaskRejectedException expected) {
+        }
+
+        assertEquals(1, executor.getRejected());
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    public void testSubmitReturnsResult() throws Exception {
+        executor = DatabaseTaskExecutor.bounded(1, 1, true); // без JDK 21 - обычный пул
+
+        assertEquals("book", executor.submit(() -> "book").get(5, TimeUnit.SECONDS));
+    }
+
+    private void blockUntilReleased() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(Callable<Boolean> condition) throws Exception {
+        for (int i = 0; i < 500 && !condition.call(); i++)
+            Thread.sleep(10);
+        assertTrue("Condition not reached", condition.call());
+    }
+}
@@ -0,0 +1,91 @@
+package ru.smm.springcourse.util;
+
+import junit.framework.TestCase;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+public class GzipResponseWrapperTest extends TestCase {
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final Map<String, String> headers = new HashMap<>();
+    private boolean committed;
+
+    public void testWrittenPageIsGzipped() throws IOException {
+        GzipResponseWrapper response = new GzipResponseWrapper(response(), 16);
+        PrintWriter writer = response.getWriter();
+        writer.write("Война и мир, Толстой; Идиот, Достоевский");
+        response.finish();
+
+        assertEquals("gzip", headers.get("Content-Encoding"));
+        assertEquals("Война и мир, Толстой; Идиот, Достоевский", gunzip(body.toByteArray()));
+    }
+
+    public void testNothingIsWrittenIfPageFailedBeforeOutput() throws IOException {
+        GzipResponseWrapper response = new GzipResponseWrapper(response(), 16);
+        response.getWriter(); // шаблон взял writer и упал, ничего не записав
+        response.flushBuffer();
+        response.finish();
+
+        assertNull(headers.get("Content-Encoding"));
+        assertEquals(0, body.size());
+        assertFalse(committed); // контейнер еще может отдать страницу ошибки
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int read; (read = in.read(buffer)) > 0; )
+            out.write(buffer, 0, read);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // Ответ контейнера: пишет тело в body, заголовки - в headers. Остальные методы не нужны
+    private HttpServletResponse response() {
+        ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+
+        return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getOutputStream":
+                            return outputStream;
+                        case "getCharacterEncoding":
+                            return "UTF-8";
+                        case "setHeader":
+                        case "addHeader":
+                            headers.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "flushBuffer":
+                            committed = true;
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}